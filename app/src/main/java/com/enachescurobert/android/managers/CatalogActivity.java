@@ -16,36 +16,97 @@
 package com.enachescurobert.android.managers;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import com.enachescurobert.android.managers.data.ManagerContract;
 import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.RosterImporter;
 
 /**
  * Displays list of managers that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<ManagerPageLoader.Pages> {
 
     /** Identifier for the manager data loader */
     private static final int MANAGER_LOADER = 0;
 
-    /** Adapter for the ListView */
-    ManagerCursorAdapter mCursorAdapter;
+    /** Request code for picking a roster file to import */
+    private static final int REQUEST_IMPORT_ROSTER = 1;
+
+    /** MIME types of the roster files that can be imported */
+    private static final String[] ROSTER_MIME_TYPES = {
+            "text/csv", "text/comma-separated-values", "application/json", "text/plain" };
+
+    /** Saved state key of the number of managers the undo snackbar brings back */
+    private static final String STATE_UNDO_COUNT = "undo_count";
+
+    /** Saved state key of the wall clock time the undo snackbar goes away at */
+    private static final String STATE_UNDO_DEADLINE = "undo_deadline";
+
+    /** Saved state key of the token of the delete the undo snackbar brings back */
+    private static final String STATE_UNDO_TOKEN = "undo_token";
+
+    /** Preference holding the order the catalog was last sorted in */
+    private static final String PREFERENCE_SORT = "sort";
+
+    /** Number of managers loaded from the provider at a time */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * How many rows before the end of the loaded managers the list starts loading the next page,
+     * so the user doesn't see it happen.
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /** Adapter for the RecyclerView */
+    ManagerAdapter mAdapter;
+
+    /** Text typed in the search box, or null if the catalog isn't being searched */
+    private String mSearchQuery;
+
+    /** Order the managers are listed in, one of the ManagerEntry SORT_* values */
+    private String mSort;
+
+    /** Roster import that is running, or null if there isn't one */
+    private RosterImportTask mImportTask;
+
+    /** Snackbar showing the progress of the roster import, or null if it isn't showing */
+    private Snackbar mImportSnackbar;
+
+    /** Delete of every manager that is running, or null if there isn't one */
+    private DeleteAllTask mDeleteTask;
+
+    /** Number of managers the undo snackbar brings back, or 0 if it isn't showing */
+    private int mUndoCount;
+
+    /** Wall clock time the undo snackbar goes away at */
+    private long mUndoDeadline;
+
+    /** Token of the delete the undo snackbar brings back */
+    private long mUndoToken;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,22 +123,19 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the manager data
-        ListView managerListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        managerListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the manager data
+        RecyclerView managerListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        managerListView.setLayoutManager(layoutManager);
+        managerListView.setHasFixedSize(true);
+        managerListView.addItemDecoration(
+                new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
 
-        // Setup an Adapter to create a list item for each row of manager data in the Cursor.
-        // There is no manager data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new ManagerCursorAdapter(this, null);
-        managerListView.setAdapter(mCursorAdapter);
-
-        // Setup the item click listener
-        managerListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each manager. There is no manager data yet
+        // (until the loader finishes), so the list starts out empty.
+        mAdapter = new ManagerAdapter(this, new ManagerAdapter.OnManagerClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onManagerClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -95,9 +153,196 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        managerListView.setAdapter(mAdapter);
+
+        // Show the empty view only when the list has 0 items. The adapter applies new lists
+        // asynchronously, so follow its changes rather than the loader results.
+        final View emptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            private void updateEmptyView() {
+                emptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
 
-        // Kick off the loader
+        // Load the next page of managers as the user scrolls towards the end of the list
+        managerListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        + PREFETCH_DISTANCE >= totalItemCount) {
+                    Loader<ManagerPageLoader.Pages> loader =
+                            getLoaderManager().getLoader(MANAGER_LOADER);
+                    if (loader != null) {
+                        ((ManagerPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
+        // Kick off the loader, in the order the user picked last time
+        mSort = getPreferences(MODE_PRIVATE).getString(PREFERENCE_SORT, ManagerEntry.SORT_NAME);
         getLoaderManager().initLoader(MANAGER_LOADER, null, this);
+
+        // Pick up the roster import and the delete that were running before a configuration
+        // change
+        RetainedTasks tasks = (RetainedTasks) getLastCustomNonConfigurationInstance();
+        if (tasks != null) {
+            mImportTask = tasks.importTask;
+            mDeleteTask = tasks.deleteTask;
+        }
+        if (mImportTask != null) {
+            mImportTask.attach(this);
+            onImportProgress(mImportTask.imported());
+        }
+        if (mDeleteTask != null) {
+            mDeleteTask.attach(this);
+        }
+
+        // Offer the undo again for whatever is left of its time
+        if (savedInstanceState != null) {
+            showUndo(savedInstanceState.getInt(STATE_UNDO_COUNT),
+                    savedInstanceState.getLong(STATE_UNDO_TOKEN),
+                    savedInstanceState.getLong(STATE_UNDO_DEADLINE));
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mUndoCount != 0) {
+            outState.putInt(STATE_UNDO_COUNT, mUndoCount);
+            outState.putLong(STATE_UNDO_DEADLINE, mUndoDeadline);
+            outState.putLong(STATE_UNDO_TOKEN, mUndoToken);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        // Keep the roster import and the delete running for the activity that replaces this
+        // one
+        if (mImportTask == null && mDeleteTask == null) {
+            return null;
+        }
+        if (mImportTask != null) {
+            mImportTask.attach(null);
+        }
+        if (mDeleteTask != null) {
+            mDeleteTask.attach(null);
+        }
+        RetainedTasks tasks = new RetainedTasks();
+        tasks.importTask = mImportTask;
+        tasks.deleteTask = mDeleteTask;
+        return tasks;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Nobody will see the import finish if the user is leaving the catalog. The delete
+        // goes on, but there is no undo to offer once it is done.
+        if (isFinishing() && mImportTask != null) {
+            mImportTask.attach(null);
+            mImportTask.cancelImport();
+        }
+        if (isFinishing() && mDeleteTask != null) {
+            mDeleteTask.attach(null);
+        }
+    }
+
+    /**
+     * Ask the user for a CSV or JSON roster file to import.
+     */
+    private void pickRoster() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, ROSTER_MIME_TYPES);
+        } else {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.setType("text/*");
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT_ROSTER);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT_ROSTER && resultCode == RESULT_OK && data != null
+                && data.getData() != null && mImportTask == null) {
+            Uri roster = data.getData();
+            RosterImporter importer = new RosterImporter(getContentResolver(), roster,
+                    RosterImporter.formatOf(getContentResolver(), roster));
+
+            // Run next to the loaders rather than queued behind other tasks
+            mImportTask = new RosterImportTask(importer, this);
+            mImportTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            onImportProgress(0);
+        }
+    }
+
+    /**
+     * Show how many managers the roster import has added so far, with a button to cancel it.
+     */
+    void onImportProgress(int imported) {
+        String message = getString(R.string.import_progress, imported);
+        if (mImportSnackbar == null) {
+            mImportSnackbar = Snackbar.make(findViewById(R.id.list), message,
+                    Snackbar.LENGTH_INDEFINITE);
+            mImportSnackbar.setAction(R.string.cancel, new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    if (mImportTask != null) {
+                        mImportTask.cancelImport();
+                    }
+                }
+            });
+            mImportSnackbar.show();
+        } else {
+            mImportSnackbar.setText(message);
+        }
+    }
+
+    /**
+     * Show how the roster import went.
+     *
+     * @param result of the import, or null if it failed
+     */
+    void onImportFinished(RosterImporter.Result result) {
+        mImportTask = null;
+
+        String message;
+        if (result == null) {
+            message = getString(R.string.import_failed);
+        } else if (result.cancelled) {
+            message = getString(R.string.import_cancelled, result.imported);
+        } else {
+            message = getString(R.string.import_finished, result.imported, result.rejected);
+        }
+
+        if (mImportSnackbar != null) {
+            mImportSnackbar.dismiss();
+            mImportSnackbar = null;
+        }
+        Snackbar.make(findViewById(R.id.list), message, Snackbar.LENGTH_LONG).show();
     }
 
     /**
@@ -120,11 +365,64 @@ public class CatalogActivity extends AppCompatActivity implements
     }
 
     /**
-     * Helper method to delete all managers in the database.
+     * Helper method to delete all managers in the database. The delete runs on a background
+     * thread, and can be undone from the snackbar for a few seconds once it is done.
      */
     private void deleteAllManagers() {
-        int rowsDeleted = getContentResolver().delete(ManagerEntry.CONTENT_URI, null, null);
+        if (mDeleteTask != null) {
+            return;
+        }
+        mDeleteTask = new DeleteAllTask(this);
+        mDeleteTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show how many managers were deleted, with a button to bring them back for as long as the
+     * provider can still undo the delete with the given token. The provider counts from when
+     * the delete committed, which is just before this is called.
+     */
+    void onManagersDeleted(int rowsDeleted, long token) {
+        mDeleteTask = null;
         Log.v("CatalogActivity", rowsDeleted + " rows deleted from manager database");
+        showUndo(rowsDeleted, token,
+                System.currentTimeMillis() + ManagerContract.UNDO_WINDOW_MILLIS);
+    }
+
+    /**
+     * Show how many managers were deleted, with a button to bring back the delete with the given
+     * token, until the given wall clock time. Nothing is shown if no managers were deleted or
+     * the time has passed.
+     */
+    private void showUndo(int rowsDeleted, final long token, long deadline) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (rowsDeleted == 0 || remaining <= 0) {
+            return;
+        }
+        mUndoCount = rowsDeleted;
+        mUndoToken = token;
+        mUndoDeadline = deadline;
+
+        final Context context = getApplicationContext();
+        Snackbar.make(findViewById(R.id.list), getString(R.string.managers_deleted, rowsDeleted),
+                (int) remaining)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        new UndoDeleteTask(context, token)
+                                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                    }
+                })
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        // A manual dismiss is the activity going away, which shows the undo
+                        // again if it is recreated
+                        if (event != DISMISS_EVENT_MANUAL) {
+                            mUndoCount = 0;
+                        }
+                    }
+                })
+                .show();
     }
 
     @Override
@@ -132,6 +430,28 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the managers as the user types in the search box
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = TextUtils.isEmpty(newText) ? null : newText;
+                if (!TextUtils.equals(query, mSearchQuery)) {
+                    mSearchQuery = query;
+                    getLoaderManager().restartLoader(MANAGER_LOADER, null, CatalogActivity.this);
+                }
+                return true;
+            }
+        });
+
+        // Tick the order the managers are listed in
+        menu.findItem(sortMenuItemId(mSort)).setChecked(true);
         return true;
     }
 
@@ -147,37 +467,156 @@ public class CatalogActivity extends AppCompatActivity implements
             case R.id.action_delete_all_entries:
                 deleteAllManagers();
                 return true;
+            // Respond to a click on the "Import roster" menu option
+            case R.id.action_import_roster:
+                pickRoster();
+                return true;
+            // Respond to a click on one of the "Sort by" menu options
+            case R.id.action_sort_name:
+                sortBy(ManagerEntry.SORT_NAME, item);
+                return true;
+            case R.id.action_sort_team:
+                sortBy(ManagerEntry.SORT_TEAM, item);
+                return true;
+            case R.id.action_sort_trophies:
+                sortBy(ManagerEntry.SORT_TROPHIES, item);
+                return true;
+            case R.id.action_sort_recent:
+                sortBy(ManagerEntry.SORT_RECENT, item);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * List the managers in the given order from now on, and remember it for the next time the
+     * catalog is opened. The provider sorts the managers, so this reloads them from the start.
+     */
+    private void sortBy(String sort, MenuItem item) {
+        item.setChecked(true);
+        if (sort.equals(mSort)) {
+            return;
+        }
+        mSort = sort;
+        getPreferences(MODE_PRIVATE).edit().putString(PREFERENCE_SORT, sort).apply();
+        getLoaderManager().restartLoader(MANAGER_LOADER, null, this);
+    }
+
+    /**
+     * Returns the id of the "Sort by" menu option for the given order.
+     */
+    private static int sortMenuItemId(String sort) {
+        if (ManagerEntry.SORT_TEAM.equals(sort)) {
+            return R.id.action_sort_team;
+        } else if (ManagerEntry.SORT_TROPHIES.equals(sort)) {
+            return R.id.action_sort_trophies;
+        } else if (ManagerEntry.SORT_RECENT.equals(sort)) {
+            return R.id.action_sort_recent;
+        }
+        return R.id.action_sort_name;
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ManagerEntry._ID,
-                ManagerEntry.COLUMN_MANAGER_NAME,
-                ManagerEntry.COLUMN_MANAGER_TEAM };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ManagerEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<ManagerPageLoader.Pages> onCreateLoader(int i, Bundle bundle) {
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // one page of managers at a time
+        Uri uri = mSearchQuery == null
+                ? ManagerEntry.CONTENT_URI : ManagerEntry.buildSearchUri(mSearchQuery);
+        return new ManagerPageLoader(this, uri, mSort, PAGE_SIZE);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ManagerCursorAdapter} with this new cursor containing updated manager data
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ManagerPageLoader.Pages> loader,
+                               ManagerPageLoader.Pages data) {
+        // Update {@link ManagerAdapter} with the managers loaded so far. Only the rows that
+        // differ from what is on screen will be rebound.
+        mAdapter.submitList(data == null ? null : data.items);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<ManagerPageLoader.Pages> loader) {
         // Callback called when the data needs to be deleted
-        //and the data in the most recently provided cursor is invalid
-        mCursorAdapter.swapCursor(null);
+        //and the data in the most recently provided list is invalid
+        mAdapter.submitList(null);
+    }
+
+    /**
+     * The tasks a catalog hands over to the one that replaces it after a configuration change.
+     */
+    private static class RetainedTasks {
+        RosterImportTask importTask;
+        DeleteAllTask deleteTask;
+    }
+
+    /**
+     * Deletes every manager off the main thread, then reports back to the catalog it is
+     * attached to. The delete only sets the tombstones of the managers, so the catalog isn't
+     * held for long. Like {@link RosterImportTask}, the task outlives configuration changes, so
+     * the undo is offered by the catalog on screen when the delete is done.
+     */
+    private static class DeleteAllTask extends AsyncTask<Void, Void, Bundle> {
+        private final ContentResolver mResolver;
+
+        /** Activity to report to, or null while there isn't one */
+        private CatalogActivity mActivity;
+
+        DeleteAllTask(CatalogActivity activity) {
+            mResolver = activity.getApplicationContext().getContentResolver();
+            mActivity = activity;
+        }
+
+        /**
+         * Report to the given activity from now on, or to nobody if it is null. Must be called
+         * on the main thread.
+         */
+        void attach(CatalogActivity activity) {
+            mActivity = activity;
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... params) {
+            // Through call() rather than delete(), which can't return the token of the delete
+            return mResolver.call(ManagerEntry.CONTENT_URI,
+                    ManagerContract.METHOD_DELETE_MANAGERS, null, null);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle result) {
+            // Nobody will see the snackbar if the user has left the catalog
+            if (mActivity != null) {
+                mActivity.onManagersDeleted(result.getInt(ManagerContract.KEY_DELETED),
+                        result.getLong(ManagerContract.KEY_DELETE_TOKEN));
+                mActivity = null;
+            }
+        }
+    }
+
+    /**
+     * Asks the provider to bring back the managers of the delete with the given token, off the
+     * main thread. The catalog reloads by itself once they are back; if it was too late, a
+     * toast says so, since the catalog may not be on screen any more.
+     */
+    private static class UndoDeleteTask extends AsyncTask<Void, Void, Integer> {
+        private final Context mContext;
+        private final long mToken;
+
+        UndoDeleteTask(Context context, long token) {
+            mContext = context;
+            mToken = token;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            Bundle result = mContext.getContentResolver().call(ManagerEntry.CONTENT_URI,
+                    ManagerContract.METHOD_UNDO_DELETE, String.valueOf(mToken), null);
+            return result.getInt(ManagerContract.KEY_RESTORED);
+        }
+
+        @Override
+        protected void onPostExecute(Integer rowsRestored) {
+            if (rowsRestored == 0) {
+                Toast.makeText(mContext, R.string.undo_failed, Toast.LENGTH_LONG).show();
+            }
+        }
     }
 }
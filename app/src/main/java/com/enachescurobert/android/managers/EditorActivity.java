@@ -17,7 +17,8 @@ package com.enachescurobert.android.managers;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentValues;
+import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -38,7 +39,12 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.enachescurobert.android.managers.data.Manager;
 import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerCursor;
+import com.enachescurobert.android.managers.data.ManagerRepository;
+import com.enachescurobert.android.managers.data.ManagerValidator;
+import com.enachescurobert.android.managers.data.ManagerWriteQueue;
 
 import static android.widget.Toast.LENGTH_LONG;
 
@@ -188,57 +194,35 @@ public class EditorActivity extends AppCompatActivity implements
                 TextUtils.isEmpty(nameString) && TextUtils.isEmpty(teamString) &&
                 TextUtils.isEmpty(trophiesString) && mGender == ManagerEntry.GENDER_UNKNOWN) {
             // Since no fields were modified, we can return early without creating a new manager.
-            // No need to create ContentValues and no need to do any ContentProvider operations.
+            // No need to do any database operations.
             return;
         }
 
-        // Create a ContentValues object where column names are the keys,
-        // and manager attributes from the editor are the values.
-        ContentValues values = new ContentValues();
-        values.put(ManagerEntry.COLUMN_MANAGER_NAME, nameString);
-        values.put(ManagerEntry.COLUMN_MANAGER_TEAM, teamString);
-        values.put(ManagerEntry.COLUMN_MANAGER_GENDER, mGender);
         // If the trophies is not provided by the user, don't try to parse the string into an
         // integer value. Use 0 by default.
         int trophies = 0;
         if (!TextUtils.isEmpty(trophiesString)) {
             trophies = Integer.parseInt(trophiesString);
         }
-        values.put(ManagerEntry.COLUMN_MANAGER_TROPHIES, trophies);
+
+        // Save through the repository's write queue, which binds the values straight into its
+        // statements on a background thread, so the editor can close without waiting for it.
+        ManagerWriteQueue writes = ManagerRepository.getInstance(this).getWriteQueue();
 
         // Determine if this is a new or existing manager by checking if mCurrentManagerUri is null or not
         if (mCurrentManagerUri == null) {
-            // This is a NEW manager, so insert a new manager into the provider,
-            // returning the content URI for the new manager.
-            Uri newUri = getContentResolver().insert(ManagerEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_manager_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_manager_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // This is a NEW manager, so queue inserting a new manager into the database.
+            // A toast tells whether or not the insertion was successful once it is done.
+            writes.insert(new Manager(nameString, teamString, mGender, trophies),
+                    new ToastCallback(this, R.string.editor_insert_manager_failed,
+                            R.string.editor_insert_manager_successful));
         } else {
-            // Otherwise this is an EXISTING manager, so update the manager with content URI: mCurrentManagerUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentManagerUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentManagerUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_manager_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_manager_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Otherwise this is an EXISTING manager, so queue updating the manager with the _id
+            // at the end of mCurrentManagerUri with the values from the editor.
+            writes.update(new Manager(ContentUris.parseId(mCurrentManagerUri),
+                    nameString, teamString, mGender, trophies),
+                    new ToastCallback(this, R.string.editor_update_manager_failed,
+                            R.string.editor_update_manager_successful));
         }
     }
 
@@ -268,13 +252,15 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         EditText managerName = (EditText)findViewById(R.id.edit_manager_name);
-        String name  =  managerName.getText().toString();
+        // Trimmed like saveManager() does, so a name of only spaces is caught here rather than
+        // rejected by the repository
+        String name  =  managerName.getText().toString().trim();
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
                 // Save manager to database
-                if(TextUtils.isEmpty(name)){
+                if (!ManagerValidator.isValidName(name)) {
                     Toast.makeText(getApplicationContext(), "You need to add the name of the manager", LENGTH_LONG).show();
                 } else {
                     saveManager();
@@ -371,17 +357,12 @@ public class EditorActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of manager attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_NAME);
-            int teamColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_TEAM);
-            int genderColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_GENDER);
-            int trophiesColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_TROPHIES);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String team = cursor.getString(teamColumnIndex);
-            int gender = cursor.getInt(genderColumnIndex);
-            int trophies = cursor.getInt(trophiesColumnIndex);
+            // Read the manager attributes that we're interested in through their typed getters
+            ManagerCursor manager = new ManagerCursor(cursor);
+            String name = manager.getName();
+            String team = manager.getTeam();
+            int gender = manager.getGender();
+            int trophies = manager.getTrophies();
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
@@ -478,24 +459,37 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteManager() {
         // Only perform the delete if this is an existing manager.
         if (mCurrentManagerUri != null) {
-            // Call the ContentResolver to delete the manager at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentManagerUri
-            // content URI already identifies the manager that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentManagerUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_manager_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_manager_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Queue deleting the manager with the _id at the end of mCurrentManagerUri, and show
+            // a toast message depending on whether or not the delete was successful.
+            ManagerRepository.getInstance(this).getWriteQueue().delete(
+                    ContentUris.parseId(mCurrentManagerUri),
+                    new ToastCallback(this, R.string.editor_delete_manager_failed,
+                            R.string.editor_delete_manager_successful));
         }
 
         // Close the activity
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows whether a queued write was successful. It only holds on to the application context,
+     * so the editor can be closed while the write is still waiting.
+     */
+    private static class ToastCallback implements ManagerWriteQueue.Callback {
+        private final Context mContext;
+        private final int mFailedMessage;
+        private final int mSuccessfulMessage;
+
+        ToastCallback(Context context, int failedMessage, int successfulMessage) {
+            mContext = context.getApplicationContext();
+            mFailedMessage = failedMessage;
+            mSuccessfulMessage = successfulMessage;
+        }
+
+        @Override
+        public void onWriteComplete(long id) {
+            int message = id == Manager.NO_ID ? mFailedMessage : mSuccessfulMessage;
+            Toast.makeText(mContext, mContext.getString(message), Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers;
+
+import android.content.Context;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * {@link ManagerAdapter} is an adapter for a {@link RecyclerView} that uses a list of
+ * {@link ManagerItem}s as its data source. New lists are handed in with
+ * {@link #submitList(java.util.List)}; the difference with the current list is worked out on a
+ * background thread and only the rows that were inserted, removed, moved or changed are updated.
+ */
+public class ManagerAdapter extends ListAdapter<ManagerItem, ManagerAdapter.ViewHolder> {
+
+    /**
+     * Interface for receiving clicks on a manager in the list.
+     */
+    public interface OnManagerClickListener {
+        void onManagerClick(long id);
+    }
+
+    /** Tells the differ which items are the same manager, and whether they changed */
+    private static final DiffUtil.ItemCallback<ManagerItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ManagerItem>() {
+                @Override
+                public boolean areItemsTheSame(ManagerItem oldItem, ManagerItem newItem) {
+                    return oldItem.id == newItem.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(ManagerItem oldItem, ManagerItem newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    /** Text shown for managers without a team, looked up once instead of on every bind */
+    private final String mUnknownTeam;
+
+    /** Listener for clicks on the list items */
+    private final OnManagerClickListener mListener;
+
+    /**
+     * Constructs a new {@link ManagerAdapter}.
+     *
+     * @param context  The context
+     * @param listener Listener for clicks on the managers in the list
+     */
+    public ManagerAdapter(Context context, OnManagerClickListener listener) {
+        super(DIFF_CALLBACK);
+        mUnknownTeam = context.getString(R.string.unknown_team);
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    /**
+     * Makes a new list item view, along with the ViewHolder that keeps references to its child
+     * views. No data is bound to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Binds the manager at the given position to the views of the given ViewHolder.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        ManagerItem manager = getItem(position);
+
+        // If the manager team is empty string or null, then use some default text
+        // that says "Unknown team", so the TextView isn't blank.
+        String managerTeam = manager.team;
+        if (TextUtils.isEmpty(managerTeam)) {
+            managerTeam = mUnknownTeam;
+        }
+
+        // Update the TextViews with the attributes for the current manager
+        holder.nameTextView.setText(manager.name);
+        holder.summaryTextView.setText(managerTeam);
+    }
+
+    /**
+     * Holds the views of a single list item, so they are only looked up when it is created.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mListener.onManagerClick(getItem(position).id);
+            }
+        }
+    }
+}
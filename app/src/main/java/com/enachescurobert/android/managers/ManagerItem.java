@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers;
+
+import android.text.TextUtils;
+
+/**
+ * {@link ManagerItem} is a single, immutable row of the list of managers: the _id, name and team
+ * of a manager, and the key it is sorted by. Two items are equal when they would be displayed
+ * the same way.
+ */
+public final class ManagerItem {
+
+    /** _id of the manager in the managers table */
+    public final long id;
+
+    /** Name of the manager */
+    public final String name;
+
+    /** Team of the manager, or null if it isn't known */
+    public final String team;
+
+    /**
+     * Page key of the manager in the order the list is sorted in (see
+     * {@link com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry#COLUMN_PAGE_KEY}).
+     * It isn't displayed, so it's left out of {@link #equals(Object)}.
+     */
+    public final String pageKey;
+
+    public ManagerItem(long id, String name, String team, String pageKey) {
+        this.id = id;
+        this.name = name;
+        this.team = team;
+        this.pageKey = pageKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ManagerItem)) {
+            return false;
+        }
+        ManagerItem other = (ManagerItem) o;
+        return id == other.id && TextUtils.equals(name, other.name)
+                && TextUtils.equals(team, other.team);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name == null ? 0 : name.hashCode());
+        result = 31 * result + (team == null ? 0 : team.hashCode());
+        return result;
+    }
+}
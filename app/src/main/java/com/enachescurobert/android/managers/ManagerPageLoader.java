@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerCursor;
+import com.enachescurobert.android.managers.data.ManagerSql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ManagerPageLoader} loads the list of managers one page at a time, using the keyset
+ * pagination query parameters of {@link ManagerEntry#CONTENT_URI} or of a search URI. Pages are
+ * only fetched when {@link #loadNextPage()} is called, so the first rows show up just as fast on
+ * a huge roster as on a small one, and memory only grows with what the user has scrolled through.
+ *
+ * Every result is a {@link Pages} holding all the managers loaded so far, read out of the
+ * cursors on the loader's background thread. When a single manager changes, the loader looks up
+ * just that manager by _id and patches it into the pages where it now sorts. When it can't tell
+ * which managers changed, it reloads the rows it had already loaded in one query.
+ */
+public class ManagerPageLoader extends AsyncTaskLoader<ManagerPageLoader.Pages> {
+
+    /** Columns read for every manager */
+    private static final String[] PROJECTION = ManagerSql.PAGE_COLUMNS;
+
+    /** Observer that patches or reloads the pages when the manager data changes */
+    private final ChangeObserver mObserver = new ChangeObserver();
+
+    /** Managers or search content URI to load the pages of */
+    private final Uri mUri;
+
+    /** Order the managers are loaded in, one of the ManagerEntry SORT_* values */
+    private final String mSort;
+
+    /** Maximum number of managers in a single page */
+    private final int mPageSize;
+
+    /** Pages delivered most recently, or null if nothing has been delivered yet */
+    private volatile Pages mCurrent;
+
+    /** Result whose next page has already been asked for, so scrolling doesn't restart the load */
+    private Pages mNextPageRequestedFor;
+
+    /** Whether {@link #mObserver} is registered with the content resolver */
+    private boolean mObserving;
+
+    /** Bumped each time the data changes, so the next load knows it has to start over */
+    private volatile int mGeneration;
+
+    /**
+     * Managers that changed since the pages were delivered, by _id, that the next load patches
+     * in. Guarded by this.
+     */
+    private final Map<Long, PendingChange> mPendingChanges = new HashMap<>();
+
+    /** Number of changes recorded so far, which numbers each pending change. Guarded by this. */
+    private long mChangeSequence;
+
+    /** Signal of the query running in the background, or null if there isn't one */
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * Constructs a new {@link ManagerPageLoader}.
+     *
+     * @param context  of the app
+     * @param uri      {@link ManagerEntry#CONTENT_URI}, or a search URI built with
+     *                 {@link ManagerEntry#buildSearchUri(String)}
+     * @param sort     order to load the managers in, such as {@link ManagerEntry#SORT_NAME}
+     * @param pageSize maximum number of managers to load at a time
+     */
+    public ManagerPageLoader(Context context, Uri uri, String sort, int pageSize) {
+        super(context);
+        mUri = uri;
+        mSort = sort;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Load the page after the last one delivered, if there is one and it hasn't been asked for
+     * already. Must be called on the main thread.
+     */
+    public void loadNextPage() {
+        Pages current = mCurrent;
+        if (current == null || !current.hasMore || !isStarted()
+                || current == mNextPageRequestedFor) {
+            return;
+        }
+        mNextPageRequestedFor = current;
+        forceLoad();
+    }
+
+    @Override
+    public Pages loadInBackground() {
+        Pages current = mCurrent;
+        int generation = mGeneration;
+
+        // Everything changed so far is either patched in or reloaded by this load
+        Map<Long, Integer> changes = new HashMap<>();
+        long changeSequence;
+        synchronized (this) {
+            changeSequence = mChangeSequence;
+            for (Map.Entry<Long, PendingChange> change : mPendingChanges.entrySet()) {
+                changes.put(change.getKey(), change.getValue().kind);
+            }
+        }
+
+        boolean reload = current == null || current.generation != generation;
+        if (!reload && !changes.isEmpty()) {
+            return patch(current, changes, changeSequence);
+        }
+
+        int limit;
+        Uri pageUri;
+        if (reload) {
+            // Start over from the first manager, but reload as many rows as the user had already
+            // seen so the list doesn't shrink under them.
+            limit = current == null ? mPageSize : Math.max(mPageSize, current.items.size());
+            pageUri = ManagerEntry.buildPageUri(mUri, mSort, limit, null, 0);
+        } else {
+            // Carry on right after the last manager that was delivered
+            limit = mPageSize;
+            pageUri = ManagerEntry.buildPageUri(mUri, mSort, limit, current.lastKey,
+                    current.lastId);
+        }
+
+        Cursor result = query(pageUri, null, null);
+        if (result == null) {
+            return current;
+        }
+
+        // The columns are found once, when the cursor is wrapped, rather than once per page
+        ManagerCursor cursor = new ManagerCursor(result);
+
+        List<ManagerItem> items;
+        int count;
+        try {
+            count = cursor.getCount();
+            items = new ArrayList<>((reload ? 0 : current.items.size()) + count);
+            if (!reload) {
+                items.addAll(current.items);
+            }
+            readItems(cursor, items);
+        } finally {
+            cursor.close();
+        }
+
+        return new Pages(Collections.unmodifiableList(items), generation, count == limit,
+                changeSequence);
+    }
+
+    /**
+     * Patch the given changes into the pages: drop the old row of every manager that changed,
+     * then look up the ones that are still there by _id, in a single query, and put each of them
+     * back where it sorts now. A manager that sorts after the last one loaded is left for the
+     * page that will hold it. A manager that no longer matches the search comes back from
+     * neither, and so drops out.
+     */
+    private Pages patch(Pages current, Map<Long, Integer> changes, long changeSequence) {
+        List<ManagerItem> changed = new ArrayList<>(changes.size());
+        StringBuilder selection = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>(changes.size());
+        for (Map.Entry<Long, Integer> change : changes.entrySet()) {
+            // Deleted managers only have to be dropped
+            if (change.getValue() != ChangeEntry.KIND_DELETE) {
+                selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+                selectionArgs.add(String.valueOf(change.getKey()));
+            }
+        }
+        if (!selectionArgs.isEmpty()) {
+            // A page of the changed managers, in the same order with the same page keys as the
+            // others
+            Cursor result = query(ManagerEntry.buildPageUri(mUri, mSort, selectionArgs.size(),
+                    null, 0), ManagerEntry._ID + " IN (" + selection + ")",
+                    selectionArgs.toArray(new String[selectionArgs.size()]));
+            if (result == null) {
+                return current;
+            }
+            ManagerCursor cursor = new ManagerCursor(result);
+            try {
+                readItems(cursor, changed);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<ManagerItem> items = new ArrayList<>(current.items.size() + changed.size());
+        for (ManagerItem item : current.items) {
+            if (!changes.containsKey(item.id)) {
+                items.add(item);
+            }
+        }
+
+        Comparator<ManagerItem> order = orderOf(mSort);
+        for (ManagerItem item : changed) {
+            int index = Collections.binarySearch(items, item, order);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (index == items.size() && current.hasMore) {
+                continue;
+            }
+            items.add(index, item);
+        }
+
+        return new Pages(Collections.unmodifiableList(items), current.generation, current.hasMore,
+                changeSequence);
+    }
+
+    /**
+     * Query the managers at the given page URI with the loader's projection, giving the query a
+     * signal on Jelly Bean and later so that a load that is no longer wanted stops where it is
+     * instead of scanning on for rows nobody will read.
+     */
+    private Cursor query(Uri pageUri, String selection, String[] selectionArgs) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return getContext().getContentResolver().query(pageUri, PROJECTION,
+                    selection, selectionArgs, null);
+        }
+
+        CancellationSignal signal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            signal = new CancellationSignal();
+            mCancellationSignal = signal;
+        }
+        try {
+            return getContext().getContentResolver().query(pageUri, PROJECTION,
+                    selection, selectionArgs, null, signal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * Add an item for each of the rows of the cursor to the given list.
+     */
+    private static void readItems(ManagerCursor cursor, List<ManagerItem> items) {
+        for (ManagerCursor.Row row : cursor.rows()) {
+            items.add(new ManagerItem(row.getId(), row.getName(), row.getTeam(),
+                    row.getPageKey()));
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Remember that the managers changed, as told by a notification of the given URI, and load
+     * again. A change to a single manager is patched in by the next load, unless so many are
+     * waiting that reloading would be cheaper; any other change reloads the pages.
+     */
+    private void onManagersChanged(Uri uri) {
+        int kind = ManagerEntry.changeKindOf(uri);
+        synchronized (this) {
+            if (kind == ManagerEntry.CHANGE_UNKNOWN || mPendingChanges.size() >= mPageSize) {
+                mGeneration++;
+            } else {
+                mChangeSequence++;
+                mPendingChanges.put(ContentUris.parseId(uri),
+                        new PendingChange(kind, mChangeSequence));
+            }
+        }
+        onContentChanged();
+    }
+
+    @Override
+    public void deliverResult(Pages pages) {
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            return;
+        }
+
+        mCurrent = pages;
+
+        // The pages already show the changes recorded before they were loaded
+        if (pages != null) {
+            synchronized (this) {
+                Iterator<PendingChange> changes = mPendingChanges.values().iterator();
+                while (changes.hasNext()) {
+                    if (changes.next().sequence <= pages.changeSequence) {
+                        changes.remove();
+                    }
+                }
+            }
+        }
+
+        if (isStarted()) {
+            super.deliverResult(pages);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // Listen for changes to the managers from now on
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    ManagerEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+
+        if (mCurrent != null) {
+            deliverResult(mCurrent);
+        }
+        if (takeContentChanged() || mCurrent == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mCurrent = null;
+        mNextPageRequestedFor = null;
+        synchronized (this) {
+            mPendingChanges.clear();
+        }
+    }
+
+    /**
+     * Returns the order of the managers for the given ManagerEntry SORT_* value, the same as the
+     * provider sorts the pages in: by page key, and then by _id. Names are compared ignoring the
+     * case of ASCII letters only, like SQLite's NOCASE collation.
+     */
+    private static Comparator<ManagerItem> orderOf(String sort) {
+        if (ManagerEntry.SORT_TROPHIES.equals(sort)) {
+            return BY_TROPHIES;
+        } else if (ManagerEntry.SORT_RECENT.equals(sort)) {
+            return BY_RECENT;
+        }
+        // Managers without a team have an empty key, so they come first in the team order too
+        return BY_KEY;
+    }
+
+    /** Order by page key ignoring case, and then by _id */
+    private static final Comparator<ManagerItem> BY_KEY = new Comparator<ManagerItem>() {
+        @Override
+        public int compare(ManagerItem a, ManagerItem b) {
+            int result = compareIgnoringAsciiCase(a.pageKey, b.pageKey);
+            return result != 0 ? result : compareIds(a.id, b.id);
+        }
+    };
+
+    /** Order by most trophies first, and then by _id */
+    private static final Comparator<ManagerItem> BY_TROPHIES = new Comparator<ManagerItem>() {
+        @Override
+        public int compare(ManagerItem a, ManagerItem b) {
+            int result = compareIds(Long.parseLong(b.pageKey), Long.parseLong(a.pageKey));
+            return result != 0 ? result : compareIds(a.id, b.id);
+        }
+    };
+
+    /** Order by most recently added first */
+    private static final Comparator<ManagerItem> BY_RECENT = new Comparator<ManagerItem>() {
+        @Override
+        public int compare(ManagerItem a, ManagerItem b) {
+            return compareIds(b.id, a.id);
+        }
+    };
+
+    private static int compareIds(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int compareIgnoringAsciiCase(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x >= 'A' && x <= 'Z') {
+                x += 'a' - 'A';
+            }
+            if (y >= 'A' && y <= 'Z') {
+                y += 'a' - 'A';
+            }
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Observer that records which managers changed. On Jelly Bean and later every notification
+     * comes with its URI; before that, it can't tell, and every change reloads the pages.
+     */
+    private final class ChangeObserver extends ContentObserver {
+
+        ChangeObserver() {
+            super(new Handler());
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onManagersChanged(uri);
+        }
+    }
+
+    /** A change to a manager waiting to be patched into the pages */
+    private static final class PendingChange {
+
+        /** One of the ChangeEntry KIND_* values */
+        final int kind;
+
+        /** Number of the change, counting every one the loader recorded */
+        final long sequence;
+
+        PendingChange(int kind, long sequence) {
+            this.kind = kind;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * All the managers loaded so far. Immutable, so it can be handed from the loader thread to
+     * the main thread and on to the adapter's differ.
+     */
+    public static final class Pages {
+
+        /** The managers, in the order they were loaded */
+        public final List<ManagerItem> items;
+
+        /** Whether the last page was full, so there may be more managers after it */
+        public final boolean hasMore;
+
+        /** Value of the loader generation when the first page was loaded */
+        final int generation;
+
+        /** Number of changes the loader had recorded when these pages were loaded */
+        final long changeSequence;
+
+        /** Page key and _id of the last manager loaded, or a null key if there are none */
+        final String lastKey;
+        final long lastId;
+
+        Pages(List<ManagerItem> items, int generation, boolean hasMore, long changeSequence) {
+            this.items = items;
+            this.generation = generation;
+            this.hasMore = hasMore;
+            this.changeSequence = changeSequence;
+
+            // The next page starts after the key of the last row, in whatever order it's sorted
+            if (items.isEmpty()) {
+                lastKey = null;
+                lastId = 0;
+            } else {
+                ManagerItem last = items.get(items.size() - 1);
+                lastKey = last.pageKey;
+                lastId = last.id;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.enachescurobert.android.managers.data.RosterImporter;
+
+import java.io.IOException;
+
+/**
+ * Runs a {@link RosterImporter} in the background and reports its progress to the
+ * {@link CatalogActivity} it is attached to. The task outlives configuration changes: the old
+ * activity detaches from it and the new one attaches, so the progress keeps showing.
+ */
+class RosterImportTask extends AsyncTask<Void, Integer, RosterImporter.Result> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RosterImportTask.class.getSimpleName();
+
+    private final RosterImporter mImporter;
+
+    /** Activity showing the progress, or null while there isn't one */
+    private CatalogActivity mActivity;
+
+    /** Number of managers imported so far, as last reported */
+    private int mImported;
+
+    RosterImportTask(RosterImporter importer, CatalogActivity activity) {
+        mImporter = importer;
+        mActivity = activity;
+    }
+
+    /**
+     * Report the progress to the given activity from now on, or to nobody if it is null.
+     * Must be called on the main thread.
+     */
+    void attach(CatalogActivity activity) {
+        mActivity = activity;
+    }
+
+    /**
+     * Returns the number of managers imported so far.
+     */
+    int imported() {
+        return mImported;
+    }
+
+    /**
+     * Stop importing. The managers already imported are kept.
+     */
+    void cancelImport() {
+        mImporter.cancel();
+    }
+
+    @Override
+    protected RosterImporter.Result doInBackground(Void... params) {
+        try {
+            return mImporter.run(new RosterImporter.ProgressListener() {
+                @Override
+                public void onProgress(int imported, int rejected) {
+                    publishProgress(imported);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to import roster", e);
+            return null;
+        } catch (RuntimeException e) {
+            // The permission to read the file may have been revoked, and the database may be
+            // full. Either way the import failed, which is no reason to crash.
+            Log.e(LOG_TAG, "Failed to import roster", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... progress) {
+        mImported = progress[0];
+        if (mActivity != null) {
+            mActivity.onImportProgress(mImported);
+        }
+    }
+
+    /**
+     * Reports the result of the import, which is null if the import failed.
+     */
+    @Override
+    protected void onPostExecute(RosterImporter.Result result) {
+        if (mActivity != null) {
+            mActivity.onImportFinished(result);
+        }
+    }
+}
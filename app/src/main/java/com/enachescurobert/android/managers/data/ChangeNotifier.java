@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the change notifications sent by {@link ManagerProvider}, so a burst of writes wakes
+ * up each observer once instead of once per write.
+ *
+ * While a thread is inside a batch (see {@link #beginBatch()}), its notifications are held back
+ * until the batch ends, and dropped if it is rolled back. All other notifications are collected
+ * for {@link #DEBOUNCE_MILLIS} after the first one arrives, and then every distinct URI is
+ * notified once.
+ *
+ * Every change that is let through, as soon as it is let through, also moves on the data
+ * {@link #generation()}, which caches use to tell whether what they hold is still current.
+ */
+class ChangeNotifier {
+
+    /** How long notifications are collected before they are sent */
+    static final long DEBOUNCE_MILLIS = 50;
+
+    /** Resolver the notifications are sent through */
+    private final ContentResolver mResolver;
+
+    /** Handler the debounced notifications are sent from */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URIs changed by the batch the calling thread is in, or null if it isn't in a batch */
+    private final ThreadLocal<Set<Uri>> mBatchUris = new ThreadLocal<>();
+
+    /** URIs waiting for the debounce window to end. Guarded by itself. */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /** Bumped for every committed change. Only written while holding {@link #mPendingUris}. */
+    private volatile long mGeneration;
+
+    /** Number of notifications asked for, and number actually sent to the resolver */
+    private final AtomicLong mRequestedCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    /** Sends the notifications collected during the debounce window */
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Start holding back the calling thread's notifications. Returns false if the thread is
+     * already in a batch, in which case the inner batch joins the outer one and must not call
+     * {@link #endBatch(boolean)}.
+     */
+    boolean beginBatch() {
+        if (mBatchUris.get() != null) {
+            return false;
+        }
+        mBatchUris.set(new LinkedHashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Stop holding back the calling thread's notifications. If the batch was committed, the URIs
+     * it changed are notified along with any others in the current debounce window; otherwise
+     * they are dropped, and only the generation moves on, so nothing read while the batch was
+     * open is taken as current.
+     */
+    void endBatch(boolean committed) {
+        Set<Uri> uris = mBatchUris.get();
+        mBatchUris.remove();
+        if (uris == null || uris.isEmpty()) {
+            return;
+        }
+        if (committed) {
+            for (Uri uri : uris) {
+                notifyChange(uri);
+            }
+        } else {
+            synchronized (mPendingUris) {
+                mGeneration++;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the calling thread is inside a batch, whose writes aren't committed yet.
+     */
+    boolean inBatch() {
+        return mBatchUris.get() != null;
+    }
+
+    /**
+     * Notify observers that the data at the given URI has changed, once the batch the calling
+     * thread is in commits or the debounce window ends.
+     */
+    void notifyChange(Uri uri) {
+        Set<Uri> batchUris = mBatchUris.get();
+        if (batchUris != null) {
+            batchUris.add(uri);
+            return;
+        }
+        mRequestedCount.incrementAndGet();
+
+        synchronized (mPendingUris) {
+            mGeneration++;
+
+            // Only the first URI in a window schedules the flush
+            if (mPendingUris.add(uri) && mPendingUris.size() == 1) {
+                mHandler.postDelayed(mFlush, DEBOUNCE_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Returns the generation of the data. It changes whenever a write outside a batch is
+     * notified, or a batch that wrote ends, so anything read at an older generation may be
+     * stale.
+     */
+    long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the number of notifications asked for. A batch counts once for each URI it
+     * changed, when it commits.
+     */
+    long requestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /**
+     * Returns the number of notifications sent to the resolver, after coalescing.
+     */
+    long sentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * Send a notification for every URI collected so far.
+     */
+    private void flush() {
+        Uri[] uris;
+        synchronized (mPendingUris) {
+            uris = mPendingUris.toArray(new Uri[mPendingUris.size()]);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+        mSentCount.addAndGet(uris.length);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.Bundle;
+
+/**
+ * A cursor that returns the given extras rather than those of the cursor it wraps, since
+ * Cursor.setExtras() only came with Marshmallow.
+ */
+class ExtrasCursor extends CursorWrapper {
+
+    private final Bundle mExtras;
+
+    ExtrasCursor(Cursor cursor, Bundle extras) {
+        super(cursor);
+        mExtras = extras;
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return mExtras;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.Cursor;
+
+/**
+ * A single manager with all of its columns, as returned by queries on the managers and as
+ * written by {@link ManagerRepository}. Immutable, so one instance can be shared by every thread
+ * that reads it from {@link ManagerCache}.
+ */
+public final class Manager {
+
+    /** _id of a manager that isn't in the database yet */
+    public static final long NO_ID = -1;
+
+    /** Team _id of a manager without a team */
+    public static final long NO_TEAM = -1;
+
+    /** Columns a manager is read from, in the order {@link #fromCursor(Cursor)} expects them */
+    static final String[] COLUMNS = ManagerSql.DETAILS_COLUMNS;
+
+    /** _id of the manager, or {@link #NO_ID} if it isn't in the database yet */
+    public final long id;
+
+    public final String name;
+
+    /** Name of the team, or null if the manager has no team */
+    public final String team;
+
+    /**
+     * _id of the team, or {@link #NO_TEAM} if the manager has no team. Only known for managers
+     * read from the database; managers are written by the {@link #team} name.
+     */
+    public final long teamId;
+
+    /** One of the ManagerEntry GENDER_ values */
+    public final int gender;
+
+    public final int trophies;
+
+    /**
+     * Create a manager that isn't in the database yet.
+     */
+    public Manager(String name, String team, int gender, int trophies) {
+        this(NO_ID, name, team, NO_TEAM, gender, trophies);
+    }
+
+    /**
+     * Create the manager with the given _id, to replace the values it has in the database.
+     */
+    public Manager(long id, String name, String team, int gender, int trophies) {
+        this(id, name, team, NO_TEAM, gender, trophies);
+    }
+
+    Manager(long id, String name, String team, long teamId, int gender, int trophies) {
+        this.id = id;
+        this.name = name;
+        this.team = team;
+        this.teamId = teamId;
+        this.gender = gender;
+        this.trophies = trophies;
+    }
+
+    /**
+     * Read the manager at the current position of a cursor over {@link #COLUMNS}.
+     */
+    static Manager fromCursor(Cursor cursor) {
+        return new Manager(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.isNull(3) ? NO_TEAM : cursor.getLong(3),
+                cursor.getInt(4), cursor.getInt(5));
+    }
+
+    /**
+     * Returns true if every column in the projection is one of {@link #COLUMNS}, so the query
+     * can be answered from a manager. A null projection means all the columns.
+     */
+    static boolean hasColumns(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value of the given column, boxed the way a cursor row would hold it.
+     */
+    Object get(String column) {
+        switch (indexOf(column)) {
+            case 0:
+                return id;
+            case 1:
+                return name;
+            case 2:
+                return team;
+            case 3:
+                return teamId == NO_TEAM ? null : teamId;
+            case 4:
+                return gender;
+            case 5:
+                return trophies;
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ComponentCallbacks2;
+import android.support.v4.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the managers that were looked up by _id most recently, so opening the same manager in
+ * the editor again doesn't go back to the database.
+ *
+ * A record read from the database is only cached if no manager was invalidated while it was
+ * being read (see {@link #generation()}), so a write that races with a read can't leave a stale
+ * record behind. Writes made inside a batch are invalidated again when the batch ends, because
+ * other threads can still read the old rows until it commits.
+ */
+class ManagerCache {
+
+    /** Maximum number of managers kept */
+    static final int MAX_ENTRIES = 256;
+
+    /** The cached managers, by _id. Guarded by {@link #mLock} for writes. */
+    private final LruCache<Long, Manager> mRecords = new LruCache<>(MAX_ENTRIES);
+
+    private final Object mLock = new Object();
+
+    /** Bumped on every invalidation. Guarded by {@link #mLock}. */
+    private long mGeneration;
+
+    /** Managers invalidated by the batch the calling thread is in, or null if it isn't in one */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /**
+     * Returns the current generation. Read it before querying a manager, and hand it to
+     * {@link #put(Manager, long)} with the result.
+     */
+    long generation() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Returns the cached manager with the given _id, or null if it isn't cached.
+     */
+    Manager get(long id) {
+        return mRecords.get(id);
+    }
+
+    /**
+     * Cache a manager read from the database, unless a manager was invalidated since the given
+     * generation was read.
+     */
+    void put(Manager record, long generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mRecords.put(record.id, record);
+            }
+        }
+    }
+
+    /**
+     * Forget the manager with the given _id, because it was changed or deleted.
+     */
+    void invalidate(long id) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.ids.add(id);
+        }
+        synchronized (mLock) {
+            mGeneration++;
+            mRecords.remove(id);
+        }
+    }
+
+    /**
+     * Forget every manager, for writes that could have changed any of them.
+     */
+    void invalidateAll() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.all = true;
+        }
+        synchronized (mLock) {
+            mGeneration++;
+            mRecords.evictAll();
+        }
+    }
+
+    /**
+     * Returns true if no managers are cached, in which case writes don't need to work out which
+     * managers they change.
+     */
+    boolean isEmpty() {
+        return mRecords.size() == 0;
+    }
+
+    /**
+     * Start remembering the calling thread's invalidations, to repeat them when the batch ends.
+     * Returns false if the thread is already in a batch, in which case the inner batch joins the
+     * outer one and must not call {@link #endBatch()}.
+     */
+    boolean beginBatch() {
+        if (mBatch.get() != null) {
+            return false;
+        }
+        mBatch.set(new Batch());
+        return true;
+    }
+
+    /**
+     * Repeat the invalidations of the calling thread's batch, now that its transaction has ended.
+     */
+    void endBatch() {
+        Batch batch = mBatch.get();
+        mBatch.remove();
+        if (batch == null) {
+            return;
+        }
+        if (batch.all) {
+            invalidateAll();
+        } else {
+            for (long id : batch.ids) {
+                invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Give memory back when the system runs low: half of the cache while the app is in the
+     * background, and all of it once the app is about to be killed or the device is struggling.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mRecords.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mRecords.trimToSize(MAX_ENTRIES / 2);
+        }
+    }
+
+    /** Number of lookups that found their manager in the cache */
+    int hitCount() {
+        return mRecords.hitCount();
+    }
+
+    /** Number of lookups that had to go to the database */
+    int missCount() {
+        return mRecords.missCount();
+    }
+
+    /** Number of managers dropped to make room for others */
+    int evictionCount() {
+        return mRecords.evictionCount();
+    }
+
+    /** Number of managers cached right now */
+    int size() {
+        return mRecords.size();
+    }
+
+    /** Invalidations made by a batch that is still running */
+    private static final class Batch {
+        final Set<Long> ids = new HashSet<>();
+        boolean all;
+    }
+}
@@ -17,6 +17,8 @@ package com.enachescurobert.android.managers.data;
 
 import android.net.Uri;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
 import android.provider.BaseColumns;
 
 /**
@@ -42,6 +44,165 @@ public final class ManagerContract {
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /**
+     * MIME types that the managers can be exported as, by opening
+     * {@link ManagerEntry#CONTENT_URI} with
+     * {@link ContentResolver#openTypedAssetFileDescriptor(Uri, String, android.os.Bundle)}.
+     * Both hold the _id, name, team, gender and trophies of every manager, in the format that
+     * {@link RosterImporter} reads back.
+     */
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_JSON = "application/json";
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that returns how well the provider's caches are doing. The result holds the int values
+     * {@link #KEY_CACHE_HITS}, {@link #KEY_CACHE_MISSES}, {@link #KEY_CACHE_EVICTIONS} and
+     * {@link #KEY_CACHE_SIZE} for the cache of managers looked up by _id, and
+     * {@link #KEY_QUERY_CACHE_HITS}, {@link #KEY_QUERY_CACHE_MISSES} and
+     * {@link #KEY_QUERY_CACHE_BYTES} for the cache of query results.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /** Number of lookups answered from the cache */
+    public static final String KEY_CACHE_HITS = "hits";
+
+    /** Number of lookups that had to query the database */
+    public static final String KEY_CACHE_MISSES = "misses";
+
+    /** Number of managers dropped from the cache to make room for others */
+    public static final String KEY_CACHE_EVICTIONS = "evictions";
+
+    /** Number of managers in the cache */
+    public static final String KEY_CACHE_SIZE = "size";
+
+    /** Number of queries whose results were found in the query cache, current or not */
+    public static final String KEY_QUERY_CACHE_HITS = "query_hits";
+
+    /** Number of queries whose results weren't in the query cache */
+    public static final String KEY_QUERY_CACHE_MISSES = "query_misses";
+
+    /** Approximate number of bytes taken up by the query cache */
+    public static final String KEY_QUERY_CACHE_BYTES = "query_bytes";
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that returns how long the provider's requests have taken since it started. The result holds
+     * a Bundle for every operation and URI that was asked for at least once, keyed by the
+     * operation ("query", "insert", "bulk_insert", "update" or "delete") and the URI, such as
+     * "query.manager_id". Each one holds the long values {@link #KEY_METRIC_COUNT},
+     * {@link #KEY_METRIC_ERRORS}, {@link #KEY_METRIC_ROWS}, {@link #KEY_METRIC_P50_MICROS},
+     * {@link #KEY_METRIC_P90_MICROS}, {@link #KEY_METRIC_P99_MICROS} and
+     * {@link #KEY_METRIC_MAX_MICROS}. The result also holds the long values
+     * {@link #KEY_NOTIFICATIONS_REQUESTED} and {@link #KEY_NOTIFICATIONS_SENT}.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /** Number of requests that succeeded */
+    public static final String KEY_METRIC_COUNT = "count";
+
+    /** Number of requests that failed with an exception */
+    public static final String KEY_METRIC_ERRORS = "errors";
+
+    /**
+     * Number of rows the requests added, changed or removed, together. Queries only record their
+     * time, so this is always 0 for them.
+     */
+    public static final String KEY_METRIC_ROWS = "rows";
+
+    /** Time in microseconds that half of the requests took at most */
+    public static final String KEY_METRIC_P50_MICROS = "p50_us";
+
+    /** Time in microseconds that 90% of the requests took at most */
+    public static final String KEY_METRIC_P90_MICROS = "p90_us";
+
+    /** Time in microseconds that 99% of the requests took at most */
+    public static final String KEY_METRIC_P99_MICROS = "p99_us";
+
+    /** Time in microseconds of the slowest request */
+    public static final String KEY_METRIC_MAX_MICROS = "max_us";
+
+    /** Number of change notifications the provider's writes asked for */
+    public static final String KEY_NOTIFICATIONS_REQUESTED = "notifications_requested";
+
+    /** Number of change notifications actually sent, once repeats were coalesced */
+    public static final String KEY_NOTIFICATIONS_SENT = "notifications_sent";
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that turns the slow query log on or off. The arg is the number of milliseconds from which
+     * a query counts as slow, or null (or a negative number) to turn the log off. The setting is
+     * kept until it's changed again.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that returns the slow queries logged most recently. The result holds them, newest first,
+     * as an ArrayList of Bundles under {@link #KEY_SLOW_QUERIES}. Each one holds
+     * {@link #KEY_SLOW_QUERY_TIME}, {@link #KEY_SLOW_QUERY_SQL}, {@link #KEY_SLOW_QUERY_ARGS},
+     * {@link #KEY_SLOW_QUERY_MICROS}, {@link #KEY_SLOW_QUERY_ROWS} and
+     * {@link #KEY_SLOW_QUERY_PLAN}.
+     */
+    public static final String METHOD_GET_SLOW_QUERIES = "get_slow_queries";
+
+    /** The slow queries, as an ArrayList of Bundles */
+    public static final String KEY_SLOW_QUERIES = "slow_queries";
+
+    /** When the query ran, as a long in milliseconds since the epoch */
+    public static final String KEY_SLOW_QUERY_TIME = "time";
+
+    /** SQL of the query, as a String */
+    public static final String KEY_SLOW_QUERY_SQL = "sql";
+
+    /** Arguments bound to the query, as a String array (or null) */
+    public static final String KEY_SLOW_QUERY_ARGS = "args";
+
+    /** Time the query took to find all of its rows, as a long in microseconds */
+    public static final String KEY_SLOW_QUERY_MICROS = "duration_us";
+
+    /** Number of rows the query returned, as an int */
+    public static final String KEY_SLOW_QUERY_ROWS = "rows";
+
+    /** Plan SQLite chose for the query, from EXPLAIN QUERY PLAN, one step per line */
+    public static final String KEY_SLOW_QUERY_PLAN = "plan";
+
+    /**
+     * How long after a delete commits it can still be undone, in milliseconds. Deleted managers
+     * are kept, hidden, until some time after that, and then purged for good.
+     */
+    public static final int UNDO_WINDOW_MILLIS = 5000;
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that deletes the managers matching the selection given as the argument, or every manager
+     * if it is null, the same way as deleting from {@link ManagerEntry#CONTENT_URI}. The result
+     * holds the number of managers deleted under {@link #KEY_DELETED}, and the token to undo the
+     * delete with under {@link #KEY_DELETE_TOKEN}.
+     */
+    public static final String METHOD_DELETE_MANAGERS = "delete_managers";
+
+    /** Number of managers that were deleted, as an int */
+    public static final String KEY_DELETED = "deleted";
+
+    /**
+     * Token of a delete, to give {@link #METHOD_UNDO_DELETE} as its argument, as a long. Only
+     * set if any managers were deleted.
+     */
+    public static final String KEY_DELETE_TOKEN = "delete_token";
+
+    /**
+     * Provider method, for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)},
+     * that brings back the managers removed by the delete whose {@link #KEY_DELETE_TOKEN} is
+     * given as the argument, if that delete committed less than {@link #UNDO_WINDOW_MILLIS} ago.
+     * The result holds the number of managers restored under {@link #KEY_RESTORED}, which is 0
+     * if it is too late.
+     */
+    public static final String METHOD_UNDO_DELETE = "undo_delete";
+
+    /** Number of managers the undo brought back, as an int */
+    public static final String KEY_RESTORED = "restored";
+
     /**
      * Possible path (appended to base content URI for possible URI's)
      * For instance, content://com.enachescurobert.android.managers/managers/ is a valid path for
@@ -50,6 +211,34 @@ public final class ManagerContract {
      */
     public static final String PATH_MANAGERS = "managers";
 
+    /**
+     * Possible path (appended to base content URI for possible URI's) for looking at the teams
+     * that managers belong to.
+     */
+    public static final String PATH_TEAMS = "teams";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's) for looking at the trophy
+     * and manager totals, grouped by team or by gender.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /** Paths appended to the stats path for the totals per team and per gender */
+    public static final String PATH_STATS_TEAMS = "teams";
+    public static final String PATH_STATS_GENDERS = "genders";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's) for reading the log of
+     * changes made to the managers.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the managers path for full-text search over manager names and teams,
+     * as in content://com.enachescurobert.android.managers/managers/search?q=hagi
+     */
+    public static final String PATH_SEARCH = "search";
+
     /**
      * Inner class that defines constant values for the managers database table.
      * Each entry in the table represents a single manager.
@@ -59,6 +248,13 @@ public final class ManagerContract {
         /** The content URI to access the manager data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MANAGERS);
 
+        /**
+         * The content URI to search managers by name and team. The search text goes in the
+         * {@link #QUERY_PARAMETER_SEARCH} query parameter, and each word in it matches any word
+         * that starts with it. Letters with Romanian diacritics match their plain counterparts.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of managers.
          */
@@ -71,6 +267,128 @@ public final class ManagerContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MANAGERS;
 
+        /** Query parameter on {@link #CONTENT_SEARCH_URI} holding the text to search for */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} or {@link #CONTENT_SEARCH_URI} that limits the
+         * result to a page of at most this many managers. Paged results are always sorted in the
+         * order given by {@link #QUERY_PARAMETER_SORT}, and every row holds its
+         * {@link #COLUMN_PAGE_KEY} in that order.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of a paged query holding the order the managers are sorted in:
+         * {@link #SORT_NAME}, {@link #SORT_TEAM}, {@link #SORT_TROPHIES} or {@link #SORT_RECENT}.
+         * Paged queries without it are sorted by name.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter of a paged query holding the {@link #COLUMN_PAGE_KEY} of the last
+         * manager of the previous page. Must be given together with
+         * {@link #QUERY_PARAMETER_AFTER_ID}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /**
+         * Query parameter of a paged query holding the _id of the last manager of the
+         * previous page. Must be given together with {@link #QUERY_PARAMETER_AFTER_KEY}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Possible orders of a paged query. Managers with the same name, team or trophies are
+         * sorted by _id.
+         */
+        public static final String SORT_NAME = "name";
+        public static final String SORT_TEAM = "team";
+        public static final String SORT_TROPHIES = "trophies";
+        public static final String SORT_RECENT = "recent";
+
+        /**
+         * Column of a paged query holding the value its rows are sorted by, such as the name of
+         * the manager for {@link #SORT_NAME}. Managers without a team have an empty page key
+         * for {@link #SORT_TEAM}, and come first.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_PAGE_KEY = "page_key";
+
+        /**
+         * Query parameter of the URIs that changes to a single manager are notified at, such as
+         * content://com.enachescurobert.android.managers/managers/3?change=1. It holds what
+         * happened to the manager: {@link ChangeEntry#KIND_INSERT},
+         * {@link ChangeEntry#KIND_UPDATE} or {@link ChangeEntry#KIND_DELETE}. Writes that change
+         * many managers at once notify {@link #CONTENT_URI} itself instead.
+         */
+        public static final String QUERY_PARAMETER_CHANGE = "change";
+
+        /** Kind returned by {@link #changeKindOf(Uri)} for a URI that isn't a single change */
+        public static final int CHANGE_UNKNOWN = -1;
+
+        /**
+         * Returns the content URI that searches managers for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, query)
+                    .build();
+        }
+
+        /**
+         * Returns the given managers or search content URI, sorted in the given order (or by name
+         * if it's null) and narrowed down to a page of at most pageSize managers, starting right
+         * after the manager with the given page key and _id. Pass a null afterKey for the first
+         * page.
+         */
+        public static Uri buildPageUri(Uri uri, String sort, int pageSize, String afterKey,
+                                       long afterId) {
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize));
+            if (sort != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            }
+            if (afterKey != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the URI that a change of the given kind to the manager with the given _id is
+         * notified at.
+         */
+        public static Uri buildChangeUri(long id, int kind) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, String.valueOf(kind))
+                    .build();
+        }
+
+        /**
+         * Returns the kind of change a notified URI was built with by
+         * {@link #buildChangeUri(long, int)}, or {@link #CHANGE_UNKNOWN} if it wasn't, in which
+         * case any of the managers may have changed. The _id of the manager is the URI's last
+         * path segment.
+         */
+        public static int changeKindOf(Uri uri) {
+            if (uri == null || uri.getPathSegments().size() != 2) {
+                return CHANGE_UNKNOWN;
+            }
+            String kind = uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+            if (kind == null) {
+                return CHANGE_UNKNOWN;
+            }
+            try {
+                Long.parseLong(uri.getLastPathSegment());
+                return Integer.parseInt(kind);
+            } catch (NumberFormatException e) {
+                return CHANGE_UNKNOWN;
+            }
+        }
+
         /** Name of database table for managers */
         public final static String TABLE_NAME = "managers";
 
@@ -89,12 +407,23 @@ public final class ManagerContract {
         public final static String COLUMN_MANAGER_NAME ="name";
 
         /**
-         * Team of the manager.
+         * Name of the team of the manager. Managers only store the _id of their team (see
+         * {@link #COLUMN_MANAGER_TEAM_ID}); queries join the name in from the teams table, and
+         * inserts and updates that give a team name are linked to the team with that name,
+         * which is created if it doesn't exist yet.
          *
          * Type: TEXT
          */
         public final static String COLUMN_MANAGER_TEAM = "team";
 
+        /**
+         * _id of the team of the manager in the teams table, or null if the team isn't known.
+         * Filtering managers by this column is an indexed lookup.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MANAGER_TEAM_ID = "team_id";
+
         /**
          * Gender of the manager.
          *
@@ -112,6 +441,17 @@ public final class ManagerContract {
          */
         public final static String COLUMN_MANAGER_TROPHIES = "trophies";
 
+        /**
+         * Token of the delete that removed the manager, which is the time the delete started in
+         * milliseconds since the epoch, or null if it wasn't deleted. Deleting a manager only
+         * sets this tombstone, which hides it from every query, so the delete can be undone
+         * (see {@link ManagerContract#METHOD_UNDO_DELETE}); the row itself is purged in the
+         * background later. Only in the managers table, never in query results.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MANAGER_DELETED = "deleted";
+
         /**
          * Possible values for the gender of the manager.
          */
@@ -131,5 +471,215 @@ public final class ManagerContract {
         }
     }
 
-}
+    /**
+     * Inner class that defines constant values for the teams database table.
+     * Each entry in the table represents a single team, shared by all of its managers.
+     */
+    public static final class TeamEntry implements BaseColumns {
+
+        /** The content URI to access the team data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_TEAMS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of teams.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TEAMS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single team.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TEAMS;
+
+        /** Name of database table for teams */
+        public final static String TABLE_NAME = "teams";
+
+        /**
+         * Unique ID number for the team (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the team. Unique, ignoring case.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TEAM_NAME = "name";
+    }
+
+    /**
+     * Inner class that defines constant values for the manager statistics. The totals are kept
+     * up to date by the database as managers are added, changed and removed, so reading them
+     * costs one row per team or gender however many managers there are. They are read-only.
+     */
+    public static final class StatsEntry {
+
+        /**
+         * Content URI that is notified whenever any of the statistics change. Observe it with
+         * notifyForDescendants set to true.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS);
+
+        /** The content URI for the totals of each team that has managers */
+        public static final Uri TEAMS_CONTENT_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_STATS_TEAMS);
+
+        /** The content URI for the totals of each gender that has managers */
+        public static final Uri GENDERS_CONTENT_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_STATS_GENDERS);
+
+        /**
+         * The MIME type of the {@link #TEAMS_CONTENT_URI} for the list of team totals.
+         */
+        public static final String TEAMS_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS + "." + PATH_STATS_TEAMS;
+
+        /**
+         * The MIME type of the {@link #GENDERS_CONTENT_URI} for the list of gender totals.
+         */
+        public static final String GENDERS_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS + "." + PATH_STATS_GENDERS;
+
+        /** Name of database table for the totals per team */
+        public final static String TEAMS_TABLE_NAME = "team_stats";
+
+        /** Name of database table for the totals per gender */
+        public final static String GENDERS_TABLE_NAME = "gender_stats";
+
+        /**
+         * _id of the team in the teams table. Only in the team totals.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TEAM_ID = "team_id";
 
+        /**
+         * Name of the team. Only in the team totals.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TEAM = "team";
+
+        /**
+         * Gender of the managers, one of the ManagerEntry gender values. Only in the gender
+         * totals.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GENDER = "gender";
+
+        /**
+         * Number of managers in the group.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MANAGER_COUNT = "manager_count";
+
+        /**
+         * Sum of the trophies of the managers in the group.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TROPHY_TOTAL = "trophy_total";
+
+        /**
+         * Most trophies won by a single manager in the group.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MAX_TROPHIES = "max_trophies";
+    }
+
+    /**
+     * Inner class that defines constant values for the change log of the managers. Every insert,
+     * update and delete of a manager, and every rename of a team, adds a change with a higher
+     * sequence number than any change before it.
+     *
+     * The log is compacted as it goes: each manager only keeps its latest change, so the log
+     * never holds more rows than there are managers, plus one for each deleted manager. Reading
+     * it from sequence number 0 gives every manager there is.
+     *
+     * To stay in sync, read the changes after the last sequence number read before (see
+     * {@link #buildChangesUri(long)}), upsert the managers that were inserted or updated and
+     * drop the ones that were deleted, and remember the highest sequence number read. That
+     * costs as much as the number of managers that changed, however big the roster is.
+     */
+    public static final class ChangeEntry {
+
+        /**
+         * The content URI for the change log, oldest change first. Rows are added to it as the
+         * managers change, so observe {@link ManagerEntry#CONTENT_URI} to know when to read it
+         * again.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} holding a sequence number. Only the changes
+         * after it are returned, unless some of them are no longer in the log: the changes of
+         * managers that were purged are taken out of it. Then the whole log is returned from the
+         * start, and the {@link Cursor#getExtras() extras} of the cursor hold
+         * {@link #EXTRA_RESET}, so the reader drops what it knew and starts over.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Boolean in the extras of a change log cursor, true if the cursor holds the whole log
+         * rather than the changes after the sequence number that was asked for.
+         */
+        public static final String EXTRA_RESET = "reset";
+
+        /**
+         * Returns the content URI for the changes after the given sequence number.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .build();
+        }
+
+        /** Name of database table for the change log */
+        public final static String TABLE_NAME = "manager_changes";
+
+        /**
+         * Sequence number of the change. Later changes always have higher numbers.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQUENCE = "sequence";
+
+        /**
+         * _id of the manager that changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MANAGER_ID = "manager_id";
+
+        /**
+         * What happened to the manager: {@link #KIND_INSERT}, {@link #KIND_UPDATE} or
+         * {@link #KIND_DELETE}. Besides this column, every change holds the
+         * {@link ManagerEntry} columns of the manager as it is now (name, team, team_id, gender
+         * and trophies), or nulls if it was deleted.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_KIND = "kind";
+
+        /**
+         * Possible values for the kind of a change. Compaction keeps only the latest change of a
+         * manager, so an inserted manager that was then edited shows up as updated; treat both
+         * the same.
+         */
+        public static final int KIND_INSERT = 0;
+        public static final int KIND_UPDATE = 1;
+        public static final int KIND_DELETE = 2;
+    }
+}
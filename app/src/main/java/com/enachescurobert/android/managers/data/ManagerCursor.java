@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A cursor over managers with typed getters for their columns. The column indices are looked up
+ * once, when the cursor is wrapped, so reading a row never searches the column names.
+ *
+ * The wrapped cursor may hold any of the manager columns; asking for one it doesn't hold throws
+ * an {@link IllegalStateException}.
+ */
+public class ManagerCursor extends CursorWrapper {
+
+    private final int mIdColumnIndex;
+    private final int mNameColumnIndex;
+    private final int mTeamColumnIndex;
+    private final int mTeamIdColumnIndex;
+    private final int mGenderColumnIndex;
+    private final int mTrophiesColumnIndex;
+    private final int mPageKeyColumnIndex;
+
+    /** The one row view handed out by {@link #rows()}, created the first time it's needed */
+    private Row mRow;
+
+    public ManagerCursor(Cursor cursor) {
+        super(cursor);
+        mIdColumnIndex = cursor.getColumnIndex(ManagerEntry._ID);
+        mNameColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_NAME);
+        mTeamColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_TEAM);
+        mTeamIdColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+        mGenderColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_GENDER);
+        mTrophiesColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_MANAGER_TROPHIES);
+        mPageKeyColumnIndex = cursor.getColumnIndex(ManagerEntry.COLUMN_PAGE_KEY);
+    }
+
+    /** Returns the _id of the manager at the current position */
+    public long getId() {
+        return getLong(column(mIdColumnIndex, ManagerEntry._ID));
+    }
+
+    /** Returns the name of the manager at the current position */
+    public String getName() {
+        return getString(column(mNameColumnIndex, ManagerEntry.COLUMN_MANAGER_NAME));
+    }
+
+    /** Returns the team of the manager at the current position, or null if it has none */
+    public String getTeam() {
+        return getString(column(mTeamColumnIndex, ManagerEntry.COLUMN_MANAGER_TEAM));
+    }
+
+    /**
+     * Returns the team _id of the manager at the current position, or {@link Manager#NO_TEAM}
+     * if it has none.
+     */
+    public long getTeamId() {
+        int index = column(mTeamIdColumnIndex, ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+        return isNull(index) ? Manager.NO_TEAM : getLong(index);
+    }
+
+    /** Returns the gender of the manager at the current position */
+    public int getGender() {
+        return getInt(column(mGenderColumnIndex, ManagerEntry.COLUMN_MANAGER_GENDER));
+    }
+
+    /** Returns the trophies of the manager at the current position */
+    public int getTrophies() {
+        return getInt(column(mTrophiesColumnIndex, ManagerEntry.COLUMN_MANAGER_TROPHIES));
+    }
+
+    /**
+     * Returns the page key of the manager at the current position, in a paged query. See
+     * {@link ManagerEntry#COLUMN_PAGE_KEY}.
+     */
+    public String getPageKey() {
+        return getString(column(mPageKeyColumnIndex, ManagerEntry.COLUMN_PAGE_KEY));
+    }
+
+    /**
+     * Returns the rows after the current position, to iterate over with a for-each loop. Every
+     * step moves the cursor to the next row and hands back the same {@link Row}, which reads
+     * from wherever the cursor is, so iterating allocates nothing per row. Don't keep a row
+     * past its step; copy its values out instead.
+     */
+    public Iterable<Row> rows() {
+        if (mRow == null) {
+            mRow = new Row();
+        }
+        return new Iterable<Row>() {
+            @Override
+            public Iterator<Row> iterator() {
+                return new Iterator<Row>() {
+                    @Override
+                    public boolean hasNext() {
+                        return getPosition() < getCount() - 1;
+                    }
+
+                    @Override
+                    public Row next() {
+                        if (!moveToNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return mRow;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * A view of the row at the current position of its {@link ManagerCursor}.
+     */
+    public final class Row {
+
+        private Row() {
+        }
+
+        public long getId() {
+            return ManagerCursor.this.getId();
+        }
+
+        public String getName() {
+            return ManagerCursor.this.getName();
+        }
+
+        public String getTeam() {
+            return ManagerCursor.this.getTeam();
+        }
+
+        public long getTeamId() {
+            return ManagerCursor.this.getTeamId();
+        }
+
+        public int getGender() {
+            return ManagerCursor.this.getGender();
+        }
+
+        public int getTrophies() {
+            return ManagerCursor.this.getTrophies();
+        }
+
+        public String getPageKey() {
+            return ManagerCursor.this.getPageKey();
+        }
+    }
+
+    private static int column(int index, String name) {
+        if (index == -1) {
+            throw new IllegalStateException("Column " + name + " isn't in the cursor");
+        }
+        return index;
+    }
+}
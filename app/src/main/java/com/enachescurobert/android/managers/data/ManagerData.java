@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.Context;
+
+/**
+ * The managers database and what {@link ManagerProvider} and {@link ManagerRepository} share
+ * around it: the cached managers, the change notifications and the purger. There is one set per
+ * application, made from the application context by whichever of the two asks for it first, so
+ * neither depends on the other having been created.
+ */
+final class ManagerData {
+
+    /** The set of the application it was made for. Guarded by ManagerData.class. */
+    private static ManagerData sInstance;
+
+    /** Application context the set was made for */
+    private final Context mContext;
+
+    final ManagerDbHelper dbHelper;
+    final ManagerCache cache;
+    final ChangeNotifier notifier;
+    final ManagerPurger purger;
+    final ManagerRepository repository;
+
+    private ManagerData(Context context) {
+        mContext = context;
+        dbHelper = new ManagerDbHelper(context);
+        cache = new ManagerCache();
+        notifier = new ChangeNotifier(context.getContentResolver());
+        purger = new ManagerPurger(dbHelper);
+        repository = new ManagerRepository(dbHelper, cache, notifier, purger);
+    }
+
+    /**
+     * Returns the set of the application the given context belongs to, making it the first
+     * time. A different application, as tests start for every test, gets a set of its own.
+     */
+    static synchronized ManagerData get(Context context) {
+        // Contexts that aren't tied to an application, such as mock ones, stand for their own
+        Context application = context.getApplicationContext();
+        if (application == null) {
+            application = context;
+        }
+        if (sInstance == null || sInstance.mContext != application) {
+            if (sInstance != null) {
+                // Let the writer of the set being replaced finish its writes and end
+                sInstance.repository.getWriteQueue().shutdown();
+            }
+            sInstance = new ManagerData(application);
+        }
+        return sInstance;
+    }
+}
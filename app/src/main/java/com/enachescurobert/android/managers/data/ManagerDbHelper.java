@@ -16,10 +16,15 @@
 package com.enachescurobert.android.managers.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
 import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.StatsEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.TeamEntry;
 
 /**
  * Database helper for Managers app. Manages database creation and version management.
@@ -32,9 +37,511 @@ public class ManagerDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "stadium.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, add a {@link Migration} to
+     * {@link #MIGRATIONS} and increment the database version to match it.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 10;
+
+    /** Version that deletes managers by setting a tombstone, see {@link #createStatsTriggers} */
+    private static final int TOMBSTONES_VERSION = 8;
+
+    /**
+     * Number of database pages SQLite keeps cached on the primary connection, which writes and
+     * serves the reads made outside the pool's reader connections. The default of 2000 pages is
+     * raised so the catalog indexes and the hot end of the table stay in memory there.
+     */
+    private static final int CACHE_SIZE_PAGES = 4000;
+
+    /**
+     * Number of pages the write-ahead log can grow to before a commit checkpoints it back into
+     * the database. Higher than SQLite's default of 1000, so a bulk load of a few thousand
+     * managers checkpoints once every few chunks rather than on every one.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+
+    /** Size in bytes the write-ahead log file is truncated back to after a checkpoint */
+    private static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+
+    /** Name of the full-text search table that indexes manager names and teams */
+    static final String SEARCH_TABLE_NAME = "manager_search";
+
+    /**
+     * Name of the view that joins every manager with the name of its team. Managers are read
+     * through it, so the provider keeps returning a "team" column.
+     */
+    static final String DETAILS_VIEW_NAME = "manager_details";
+
+    /** Name of the view that joins the totals of every team with the name of the team */
+    static final String TEAM_STATS_VIEW_NAME = "team_stats_details";
+
+    /**
+     * Name of the view that joins every change in the change log with the manager as it is now,
+     * and the name of its team
+     */
+    static final String CHANGES_VIEW_NAME = "manager_change_details";
+
+    /**
+     * Name of the one-row table holding the highest sequence number of a change that was taken
+     * out of the change log, when its manager was purged. Readers of the log from before it
+     * have missed that change, so they start over from the beginning.
+     */
+    static final String CHANGES_FLOOR_TABLE_NAME = "manager_changes_floor";
+
+    /**
+     * Name of the table holding every delete whose managers haven't all been purged or brought
+     * back. Its rows are keyed by the tombstone the delete gave its managers (see
+     * {@link ManagerEntry#COLUMN_MANAGER_DELETED}), and hold the time it committed, which the
+     * undo and the purge count from.
+     */
+    static final String DELETES_TABLE_NAME = "manager_deletes";
+
+    /**
+     * Time a delete committed its last chunk of managers, in milliseconds since the epoch. Only
+     * in {@link #DELETES_TABLE_NAME}.
+     */
+    static final String COLUMN_DELETE_COMMITTED = "committed";
+
+    /** Selection of the managers that haven't been deleted, which are the only ones queries see */
+    static final String NOT_DELETED = ManagerSql.NOT_DELETED;
+
+    /**
+     * Diacritics that the search index folds away, each followed by the plain letter it's
+     * folded to. Uppercase letters are folded straight to lowercase, because SQLite's lower()
+     * and the FTS "simple" tokenizer only know about ASCII case.
+     */
+    private static final String[][] FOLDED_LETTERS = {
+            { "ă", "a" }, { "Ă", "a" },
+            { "â", "a" }, { "Â", "a" },
+            { "î", "i" }, { "Î", "i" },
+            { "ș", "s" }, { "Ș", "s" }, { "ş", "s" }, { "Ş", "s" },
+            { "ț", "t" }, { "Ț", "t" }, { "ţ", "t" }, { "Ţ", "t" } };
+
+    /**
+     * A single step of the schema, taking the database from the version before it to
+     * {@link #version}. Every step runs inside the transaction SQLiteOpenHelper opens around
+     * onCreate() and onUpgrade(), so a step that fails leaves the database at the old version.
+     */
+    private abstract static class Migration {
+
+        /** Database version this step brings the schema up to */
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Every step of the schema after version 1, in order. New databases are created at version 1
+     * and then run through all of them, so they end up with exactly the same schema as upgraded
+     * ones.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2 adds the full-text search index over names and teams
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                    db.execSQL("INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM
+                            + ") SELECT " + ManagerEntry._ID + ", "
+                            + foldExpression(ManagerEntry.COLUMN_MANAGER_NAME) + ", "
+                            + foldExpression(ManagerEntry.COLUMN_MANAGER_TEAM)
+                            + " FROM " + ManagerEntry.TABLE_NAME);
+                }
+            },
+
+            // Version 3 adds indexes for filtering and sorting the catalog by team, trophies
+            // and name
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM + ")");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " DESC)");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_name ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " COLLATE NOCASE)");
+                }
+            },
+
+            // Version 4 moves the teams into their own table. Managers keep the _id of their
+            // team instead of its name, so each name is stored once and filtering by team is an
+            // integer lookup.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + TeamEntry.TABLE_NAME + " ("
+                            + TeamEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + TeamEntry.COLUMN_TEAM_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE)");
+
+                    // One team for every distinct name, ignoring case and surrounding spaces.
+                    // Empty names don't make a team.
+                    db.execSQL("INSERT OR IGNORE INTO " + TeamEntry.TABLE_NAME + " ("
+                            + TeamEntry.COLUMN_TEAM_NAME + ") SELECT trim("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM + ") FROM " + ManagerEntry.TABLE_NAME
+                            + " WHERE trim(" + ManagerEntry.COLUMN_MANAGER_TEAM + ") != ''"
+                            + " ORDER BY " + ManagerEntry._ID);
+
+                    // SQLite can't change a column in place, so build the new managers table
+                    // next to the old one and copy the rows over, keeping their _ids. The old
+                    // table takes its indexes and triggers with it when it is dropped.
+                    String oldTable = ManagerEntry.TABLE_NAME + "_old";
+                    db.execSQL("ALTER TABLE " + ManagerEntry.TABLE_NAME + " RENAME TO " + oldTable);
+                    db.execSQL("CREATE TABLE " + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " TEXT NOT NULL, "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " INTEGER REFERENCES "
+                            + TeamEntry.TABLE_NAME + " (" + TeamEntry._ID + ") ON DELETE SET NULL, "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + " INTEGER NOT NULL, "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " INTEGER NOT NULL DEFAULT 0)");
+                    db.execSQL("INSERT INTO " + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ") SELECT m." + ManagerEntry._ID
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_NAME
+                            + ", (SELECT t." + TeamEntry._ID + " FROM " + TeamEntry.TABLE_NAME
+                            + " t WHERE t." + TeamEntry.COLUMN_TEAM_NAME + " = trim(m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM + ")), m."
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " FROM " + oldTable + " m");
+
+                    // Carry the AUTOINCREMENT counter over, so the _ids of deleted managers are
+                    // never handed out again
+                    db.execSQL("DELETE FROM sqlite_sequence WHERE name = '"
+                            + ManagerEntry.TABLE_NAME + "'");
+                    db.execSQL("UPDATE sqlite_sequence SET name = '" + ManagerEntry.TABLE_NAME
+                            + "' WHERE name = '" + oldTable + "'");
+                    db.execSQL("DROP TABLE " + oldTable);
+
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team_id ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ")");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " DESC)");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_name ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " COLLATE NOCASE)");
+
+                    db.execSQL("CREATE VIEW " + DETAILS_VIEW_NAME + " AS SELECT m."
+                            + ManagerEntry._ID + " AS " + ManagerEntry._ID + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", t."
+                            + TeamEntry.COLUMN_TEAM_NAME + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " FROM "
+                            + ManagerEntry.TABLE_NAME + " m LEFT JOIN " + TeamEntry.TABLE_NAME
+                            + " t ON t." + TeamEntry._ID + " = m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+
+                    createTeamSearchTriggers(db);
+                }
+            },
+
+            // Version 5 adds the totals per team and per gender, which triggers keep up to date
+            // so that reading them doesn't have to group the whole managers table
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + StatsEntry.TEAMS_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_TEAM_ID + " INTEGER PRIMARY KEY REFERENCES "
+                            + TeamEntry.TABLE_NAME + " (" + TeamEntry._ID + ") ON DELETE CASCADE, "
+                            + STATS_COLUMNS + ")");
+                    db.execSQL("CREATE TABLE " + StatsEntry.GENDERS_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY, "
+                            + STATS_COLUMNS + ")");
+
+                    // Finding the new most trophies of a group after its top manager leaves is
+                    // a single index seek on these
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_team_id");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ")");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_gender_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ")");
+
+                    // Work out the totals of the managers that are already there, once
+                    db.execSQL("INSERT INTO " + StatsEntry.TEAMS_TABLE_NAME + " SELECT "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", " + STATS_AGGREGATES
+                            + " FROM " + ManagerEntry.TABLE_NAME + " WHERE "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " IS NOT NULL GROUP BY "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+                    db.execSQL("INSERT INTO " + StatsEntry.GENDERS_TABLE_NAME + " SELECT "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", " + STATS_AGGREGATES
+                            + " FROM " + ManagerEntry.TABLE_NAME + " GROUP BY "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER);
+
+                    db.execSQL("CREATE VIEW " + TEAM_STATS_VIEW_NAME + " AS SELECT s."
+                            + StatsEntry.COLUMN_TEAM_ID + " AS " + StatsEntry.COLUMN_TEAM_ID
+                            + ", t." + TeamEntry.COLUMN_TEAM_NAME + " AS " + StatsEntry.COLUMN_TEAM
+                            + ", s." + StatsEntry.COLUMN_MANAGER_COUNT
+                            + " AS " + StatsEntry.COLUMN_MANAGER_COUNT
+                            + ", s." + StatsEntry.COLUMN_TROPHY_TOTAL
+                            + " AS " + StatsEntry.COLUMN_TROPHY_TOTAL
+                            + ", s." + StatsEntry.COLUMN_MAX_TROPHIES
+                            + " AS " + StatsEntry.COLUMN_MAX_TROPHIES + " FROM "
+                            + StatsEntry.TEAMS_TABLE_NAME + " s JOIN " + TeamEntry.TABLE_NAME
+                            + " t ON t." + TeamEntry._ID + " = s." + StatsEntry.COLUMN_TEAM_ID);
+
+                    createStatsTriggers(db, 5);
+                }
+            },
+
+            // Version 6 makes the indexes the catalog is sorted by cover the columns it lists,
+            // so each sort order is a walk down one index without visiting the table. The _id
+            // comes right after the sort column, because it breaks the ties between pages.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_name");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_name ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " COLLATE NOCASE, "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ")");
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_trophies");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " DESC, "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ")");
+
+                    // Sorting by team walks the team names, then each team's managers (and the
+                    // managers without a team) by _id on this one
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team_id ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ")");
+                }
+            },
+
+            // Version 7 adds the change log, which triggers append to on every write so that
+            // readers can catch up on what changed instead of reading every manager again
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // AUTOINCREMENT, so a sequence number is never handed out twice even after
+                    // compaction deletes the change that had the highest one
+                    db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ChangeEntry.COLUMN_MANAGER_ID + " INTEGER NOT NULL UNIQUE, "
+                            + ChangeEntry.COLUMN_KIND + " INTEGER NOT NULL)");
+
+                    // The managers that are already there count as inserted, so reading the log
+                    // from the start gives all of them
+                    db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_MANAGER_ID + ", " + ChangeEntry.COLUMN_KIND
+                            + ") SELECT " + ManagerEntry._ID + ", " + ChangeEntry.KIND_INSERT
+                            + " FROM " + ManagerEntry.TABLE_NAME + " ORDER BY " + ManagerEntry._ID);
+
+                    // Joins the managers table rather than the details view, so SQLite can
+                    // flatten it into a lookup by primary key for each change
+                    db.execSQL("CREATE VIEW " + CHANGES_VIEW_NAME + " AS SELECT c."
+                            + ChangeEntry.COLUMN_SEQUENCE + " AS " + ChangeEntry.COLUMN_SEQUENCE
+                            + ", c." + ChangeEntry.COLUMN_MANAGER_ID
+                            + " AS " + ChangeEntry.COLUMN_MANAGER_ID
+                            + ", c." + ChangeEntry.COLUMN_KIND + " AS " + ChangeEntry.COLUMN_KIND
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_NAME
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_NAME
+                            + ", t." + TeamEntry.COLUMN_TEAM_NAME
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TEAM
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_GENDER
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_GENDER
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_TROPHIES
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TROPHIES + " FROM "
+                            + ChangeEntry.TABLE_NAME + " c LEFT JOIN " + ManagerEntry.TABLE_NAME
+                            + " m ON m." + ManagerEntry._ID + " = c." + ChangeEntry.COLUMN_MANAGER_ID
+                            + " LEFT JOIN " + TeamEntry.TABLE_NAME + " t ON t." + TeamEntry._ID
+                            + " = m." + ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+
+                    createChangeLogTriggers(db, 7);
+                }
+            },
+
+            // Version 8 deletes managers by setting a tombstone rather than removing the row,
+            // so a delete is a quick update that can be undone. ManagerPurger removes the rows
+            // for good later, a few at a time.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ManagerEntry.TABLE_NAME + " ADD COLUMN "
+                            + ManagerEntry.COLUMN_MANAGER_DELETED + " INTEGER");
+
+                    // The indexes only hold the managers that are left, so walking them never
+                    // steps over a deleted one, and the purge and the undo find the deleted ones
+                    // on an index of their own. Partial indexes need SQLite 3.8, which came with
+                    // Lollipop; before that the indexes hold every manager, and the deleted ones
+                    // are skipped as they are read.
+                    //
+                    // Every query now checks the tombstone, and SQLite only reads an index
+                    // without the table if the index holds every column the query uses, even
+                    // when its WHERE clause already rules the deleted managers out. So the
+                    // tombstone goes last in each index, to keep them covering.
+                    boolean partial = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+                    String live = partial ? " WHERE " + NOT_DELETED : "";
+                    String deleted = ManagerEntry.COLUMN_MANAGER_DELETED;
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_name");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_name ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " COLLATE NOCASE, "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", " + deleted + ")" + live);
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_trophies");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " DESC, "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", " + deleted + ")" + live);
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_team_id");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team_id ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", "
+                            + ManagerEntry._ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", " + deleted + ")" + live);
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_team_trophies");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_team_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ", " + deleted + ")" + live);
+                    db.execSQL("DROP INDEX " + ManagerEntry.TABLE_NAME + "_gender_trophies");
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_gender_trophies ON "
+                            + ManagerEntry.TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ", " + deleted + ")" + live);
+                    db.execSQL("CREATE INDEX " + ManagerEntry.TABLE_NAME + "_deleted ON "
+                            + ManagerEntry.TABLE_NAME + " (" + deleted + ")"
+                            + (partial ? " WHERE " + deleted + " IS NOT NULL" : ""));
+
+                    // Every query reads the managers through the details view, so leaving the
+                    // deleted managers out of it hides them everywhere
+                    db.execSQL("DROP VIEW " + DETAILS_VIEW_NAME);
+                    db.execSQL("CREATE VIEW " + DETAILS_VIEW_NAME + " AS SELECT m."
+                            + ManagerEntry._ID + " AS " + ManagerEntry._ID + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_NAME + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_NAME + ", t."
+                            + TeamEntry.COLUMN_TEAM_NAME + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_GENDER + ", m."
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " AS "
+                            + ManagerEntry.COLUMN_MANAGER_TROPHIES + " FROM "
+                            + ManagerEntry.TABLE_NAME + " m LEFT JOIN " + TeamEntry.TABLE_NAME
+                            + " t ON t." + TeamEntry._ID + " = m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " WHERE m." + NOT_DELETED);
+
+                    // A deleted manager shows up in the change log with nulls, as if it were gone
+                    db.execSQL("DROP VIEW " + CHANGES_VIEW_NAME);
+                    db.execSQL("CREATE VIEW " + CHANGES_VIEW_NAME + " AS SELECT c."
+                            + ChangeEntry.COLUMN_SEQUENCE + " AS " + ChangeEntry.COLUMN_SEQUENCE
+                            + ", c." + ChangeEntry.COLUMN_MANAGER_ID
+                            + " AS " + ChangeEntry.COLUMN_MANAGER_ID
+                            + ", c." + ChangeEntry.COLUMN_KIND + " AS " + ChangeEntry.COLUMN_KIND
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_NAME
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_NAME
+                            + ", t." + TeamEntry.COLUMN_TEAM_NAME
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TEAM
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_GENDER
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_GENDER
+                            + ", m." + ManagerEntry.COLUMN_MANAGER_TROPHIES
+                            + " AS " + ManagerEntry.COLUMN_MANAGER_TROPHIES + " FROM "
+                            + ChangeEntry.TABLE_NAME + " c LEFT JOIN " + ManagerEntry.TABLE_NAME
+                            + " m ON m." + ManagerEntry._ID + " = c." + ChangeEntry.COLUMN_MANAGER_ID
+                            + " AND m." + NOT_DELETED + " LEFT JOIN " + TeamEntry.TABLE_NAME
+                            + " t ON t." + TeamEntry._ID + " = m."
+                            + ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+
+                    // Replace the stats and change log triggers with ones that tell the deleted
+                    // managers apart
+                    for (String trigger : new String[] { "_stats_insert", "_stats_update",
+                            "_stats_delete" }) {
+                        db.execSQL("DROP TRIGGER " + ManagerEntry.TABLE_NAME + trigger);
+                    }
+                    createStatsTriggers(db, 8);
+                    for (String trigger : new String[] { "_insert", "_update", "_delete",
+                            "_team_update" }) {
+                        db.execSQL("DROP TRIGGER " + ChangeEntry.TABLE_NAME + trigger);
+                    }
+                    createChangeLogTriggers(db, 8);
+                }
+            },
+
+            // Version 9 stops the change log from growing for ever. Purging a manager takes its
+            // last change out of the log and raises the floor to it, see ManagerPurger.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + CHANGES_FLOOR_TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SEQUENCE + " INTEGER NOT NULL)");
+
+                    // The changes of the managers that are already gone, purged or deleted
+                    // before there were tombstones, go the same way
+                    String gone = ChangeEntry.COLUMN_MANAGER_ID + " NOT IN (SELECT "
+                            + ManagerEntry._ID + " FROM " + ManagerEntry.TABLE_NAME + ")";
+                    db.execSQL("INSERT INTO " + CHANGES_FLOOR_TABLE_NAME + " SELECT ifnull(max("
+                            + ChangeEntry.COLUMN_SEQUENCE + "), 0) FROM "
+                            + ChangeEntry.TABLE_NAME + " WHERE " + gone);
+                    db.execSQL("DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE " + gone);
+                }
+            },
+
+            // Version 10 records when each delete committed, so a delete that takes a while
+            // can still be undone, and isn't purged, until some time after it finished
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + DELETES_TABLE_NAME + " ("
+                            + ManagerEntry.COLUMN_MANAGER_DELETED + " INTEGER PRIMARY KEY, "
+                            + COLUMN_DELETE_COMMITTED + " INTEGER NOT NULL)");
+
+                    // The deletes from before only know when they started
+                    db.execSQL("INSERT INTO " + DELETES_TABLE_NAME + " SELECT DISTINCT "
+                            + ManagerEntry.COLUMN_MANAGER_DELETED + ", "
+                            + ManagerEntry.COLUMN_MANAGER_DELETED + " FROM "
+                            + ManagerEntry.TABLE_NAME + " WHERE "
+                            + ManagerEntry.COLUMN_MANAGER_DELETED + " IS NOT NULL");
+                }
+            },
+    };
+
+    /** Columns shared by the team and gender totals tables */
+    private static final String STATS_COLUMNS =
+            StatsEntry.COLUMN_MANAGER_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_TROPHY_TOTAL + " INTEGER NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_MAX_TROPHIES + " INTEGER NOT NULL DEFAULT 0";
+
+    /** Aggregates of a group of managers, in the order of {@link #STATS_COLUMNS} */
+    private static final String STATS_AGGREGATES = "count(*), sum("
+            + ManagerEntry.COLUMN_MANAGER_TROPHIES + "), max("
+            + ManagerEntry.COLUMN_MANAGER_TROPHIES + ")";
+
+    /** The last time handed out by {@link #newDeletionTime()}. Guarded by this. */
+    private long mLastDeletionTime;
 
     /**
      * Constructs a new instance of {@link ManagerDbHelper}.
@@ -43,6 +550,96 @@ public class ManagerDbHelper extends SQLiteOpenHelper {
      */
     public ManagerDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // Use write-ahead logging, so the catalog can keep reading while the editor or an
+        // import is writing. Older versions turn it on in onOpen() instead.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * This is called when the database connection is being configured, before it is created or
+     * upgraded. Only called on Jelly Bean and later.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    /**
+     * This is called when the database has been opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Before Jelly Bean there is no onConfigure() or setWriteAheadLoggingEnabled(), so
+        // switch the journal mode and tune the connection here.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (!db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+            configure(db);
+        }
+    }
+
+    /**
+     * Tune the connection for write-ahead logging. In WAL mode a synchronous level of NORMAL
+     * only syncs at checkpoints instead of on every commit, and a commit that is lost to a power
+     * cut is rolled back cleanly rather than corrupting the database.
+     *
+     * The pragmas run through execSQL() only reach the primary connection. The pool opens its
+     * reader connections later with its own journal mode and sync level, and SQLite's default
+     * cache, so the reads that run on them while a write is going on aren't tuned by this.
+     */
+    private static void configure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+
+        // Make SQLite enforce the team references of the managers. Jelly Bean and later can't
+        // change this pragma with execSQL() while a connection is being configured.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.setForeignKeyConstraintsEnabled(true);
+        } else {
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
+
+        // These pragmas return a row, so they can't go through execSQL()
+        pragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * Copy as much of the write-ahead log back into the database as can be done without waiting
+     * for readers. Called after a purge, so the log doesn't stay big and slow down reads.
+     */
+    public void checkpoint() {
+        pragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    /**
+     * Returns the time to set as the tombstone of the managers deleted next, in milliseconds,
+     * which is also the token of that delete in {@link #DELETES_TABLE_NAME}. Every call returns
+     * a later time than the one before, even within the same millisecond, so the managers of one
+     * delete can be told apart from those of any other and undone together.
+     */
+    synchronized long newDeletionTime() {
+        mLastDeletionTime = Math.max(System.currentTimeMillis(), mLastDeletionTime + 1);
+        return mLastDeletionTime;
+    }
+
+    /**
+     * Run a pragma statement that returns a result row, and ignore the result.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -50,6 +647,15 @@ public class ManagerDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createSchema(db, DATABASE_VERSION);
+    }
+
+    /**
+     * Create the schema of the given version in an empty database: the version 1 managers table,
+     * brought up to that version by the migrations. Any version but the current one is only made
+     * by the upgrade tests.
+     */
+    static void createSchema(SQLiteDatabase db, int version) {
         // Create a String that contains the SQL statement to create the managers table
         String SQL_CREATE_MANAGERS_TABLE =  "CREATE TABLE " + ManagerEntry.TABLE_NAME + " ("
                 + ManagerEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -60,6 +666,9 @@ public class ManagerDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_MANAGERS_TABLE);
+
+        // Bring the version 1 schema up to the version
+        migrate(db, 1, version);
     }
 
     /**
@@ -67,6 +676,308 @@ public class ManagerDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Apply, in order, every migration that takes the database from oldVersion to newVersion.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            if (migration.version != version + 1) {
+                throw new IllegalStateException("Missing migration to version " + (version + 1));
+            }
+            migration.migrate(db);
+            version = migration.version;
+        }
+
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration from version " + version
+                    + " to version " + newVersion);
+        }
+    }
+
+    /**
+     * Create the FTS4 table over manager names and teams, and the triggers that keep it in sync
+     * with the managers table. The docid of each search row is the _id of its manager, and the
+     * text is stored folded (see {@link #foldForSearch(String)}).
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        // Prefix indexes keep search-as-you-type queries for short prefixes fast. The prefix
+        // option needs SQLite 3.7.9, which came with Jelly Bean; before that the table is built
+        // without them, and prefix queries scan the full-term index instead.
+        boolean prefixes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        db.execSQL("CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                + ManagerEntry.COLUMN_MANAGER_NAME + ", "
+                + ManagerEntry.COLUMN_MANAGER_TEAM
+                + (prefixes ? ", prefix=\"2,3\")" : ")"));
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_insert AFTER INSERT ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                + ManagerEntry.COLUMN_MANAGER_NAME + ", " + ManagerEntry.COLUMN_MANAGER_TEAM
+                + ") VALUES (new." + ManagerEntry._ID + ", "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_NAME) + ", "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_TEAM) + "); END");
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_update AFTER UPDATE OF "
+                + ManagerEntry.COLUMN_MANAGER_NAME + ", " + ManagerEntry.COLUMN_MANAGER_TEAM
+                + " ON " + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                + ManagerEntry.COLUMN_MANAGER_NAME + " = "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_NAME) + ", "
+                + ManagerEntry.COLUMN_MANAGER_TEAM + " = "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_TEAM)
+                + " WHERE docid = old." + ManagerEntry._ID + "; END");
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete AFTER DELETE ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + SEARCH_TABLE_NAME
+                + " WHERE docid = old." + ManagerEntry._ID + "; END");
+    }
+
+    /**
+     * Create the triggers that keep the search index in sync once managers only hold the _id of
+     * their team. The team text of a search row is looked up from the teams table, and renaming
+     * a team rewrites the search rows of all its managers.
+     */
+    private static void createTeamSearchTriggers(SQLiteDatabase db) {
+        String newTeamName = "(SELECT " + TeamEntry.COLUMN_TEAM_NAME + " FROM "
+                + TeamEntry.TABLE_NAME + " WHERE " + TeamEntry._ID + " = new."
+                + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ")";
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_insert AFTER INSERT ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                + ManagerEntry.COLUMN_MANAGER_NAME + ", " + ManagerEntry.COLUMN_MANAGER_TEAM
+                + ") VALUES (new." + ManagerEntry._ID + ", "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_NAME) + ", "
+                + foldExpression(newTeamName) + "); END");
+
+        // Also fired when a team is deleted and its managers' team_id is set to null
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_update AFTER UPDATE OF "
+                + ManagerEntry.COLUMN_MANAGER_NAME + ", " + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                + " ON " + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                + ManagerEntry.COLUMN_MANAGER_NAME + " = "
+                + foldExpression("new." + ManagerEntry.COLUMN_MANAGER_NAME) + ", "
+                + ManagerEntry.COLUMN_MANAGER_TEAM + " = " + foldExpression(newTeamName)
+                + " WHERE docid = old." + ManagerEntry._ID + "; END");
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete AFTER DELETE ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + SEARCH_TABLE_NAME
+                + " WHERE docid = old." + ManagerEntry._ID + "; END");
+
+        db.execSQL("CREATE TRIGGER " + SEARCH_TABLE_NAME + "_team_update AFTER UPDATE OF "
+                + TeamEntry.COLUMN_TEAM_NAME + " ON " + TeamEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                + ManagerEntry.COLUMN_MANAGER_TEAM + " = "
+                + foldExpression("new." + TeamEntry.COLUMN_TEAM_NAME)
+                + " WHERE docid IN (SELECT " + ManagerEntry._ID + " FROM "
+                + ManagerEntry.TABLE_NAME + " WHERE " + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                + " = new." + TeamEntry._ID + "); END");
+    }
+
+    /**
+     * Create the triggers that keep the team and gender totals in step with the managers table,
+     * as they are in the given schema version. A changed manager is taken out of its old groups
+     * and added to its new ones. Groups are added when their first manager arrives and removed
+     * when their last one leaves. From version 8 deleted managers aren't counted, so setting the
+     * tombstone takes a manager out of its groups, and purging it later changes nothing.
+     *
+     * Each migration passes its own version, so the triggers it creates stay the same however
+     * this method changes for later versions.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, int version) {
+        boolean tombstones = version >= TOMBSTONES_VERSION;
+        db.execSQL("CREATE TRIGGER " + ManagerEntry.TABLE_NAME + "_stats_insert AFTER INSERT ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + addToStats(StatsEntry.TEAMS_TABLE_NAME, StatsEntry.COLUMN_TEAM_ID,
+                        ManagerEntry.COLUMN_MANAGER_TEAM_ID, tombstones)
+                + addToStats(StatsEntry.GENDERS_TABLE_NAME, StatsEntry.COLUMN_GENDER,
+                        ManagerEntry.COLUMN_MANAGER_GENDER, tombstones)
+                + "END");
+
+        // Saving a manager from the editor writes every column, so skip the updates that don't
+        // change any of the totals
+        db.execSQL("CREATE TRIGGER " + ManagerEntry.TABLE_NAME + "_stats_update AFTER UPDATE OF "
+                + ManagerEntry.COLUMN_MANAGER_TEAM_ID + ", " + ManagerEntry.COLUMN_MANAGER_GENDER
+                + ", " + ManagerEntry.COLUMN_MANAGER_TROPHIES
+                + (tombstones ? ", " + ManagerEntry.COLUMN_MANAGER_DELETED : "")
+                + " ON " + ManagerEntry.TABLE_NAME
+                + " WHEN old." + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " IS NOT new."
+                + ManagerEntry.COLUMN_MANAGER_TEAM_ID
+                + " OR old." + ManagerEntry.COLUMN_MANAGER_GENDER + " != new."
+                + ManagerEntry.COLUMN_MANAGER_GENDER
+                + " OR old." + ManagerEntry.COLUMN_MANAGER_TROPHIES + " != new."
+                + ManagerEntry.COLUMN_MANAGER_TROPHIES
+                + (tombstones ? " OR old." + ManagerEntry.COLUMN_MANAGER_DELETED + " IS NOT new."
+                        + ManagerEntry.COLUMN_MANAGER_DELETED : "") + " BEGIN "
+                + removeFromStats(StatsEntry.TEAMS_TABLE_NAME, StatsEntry.COLUMN_TEAM_ID,
+                        ManagerEntry.COLUMN_MANAGER_TEAM_ID, tombstones)
+                + removeFromStats(StatsEntry.GENDERS_TABLE_NAME, StatsEntry.COLUMN_GENDER,
+                        ManagerEntry.COLUMN_MANAGER_GENDER, tombstones)
+                + addToStats(StatsEntry.TEAMS_TABLE_NAME, StatsEntry.COLUMN_TEAM_ID,
+                        ManagerEntry.COLUMN_MANAGER_TEAM_ID, tombstones)
+                + addToStats(StatsEntry.GENDERS_TABLE_NAME, StatsEntry.COLUMN_GENDER,
+                        ManagerEntry.COLUMN_MANAGER_GENDER, tombstones)
+                + "END");
+
+        db.execSQL("CREATE TRIGGER " + ManagerEntry.TABLE_NAME + "_stats_delete AFTER DELETE ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + removeFromStats(StatsEntry.TEAMS_TABLE_NAME, StatsEntry.COLUMN_TEAM_ID,
+                        ManagerEntry.COLUMN_MANAGER_TEAM_ID, tombstones)
+                + removeFromStats(StatsEntry.GENDERS_TABLE_NAME, StatsEntry.COLUMN_GENDER,
+                        ManagerEntry.COLUMN_MANAGER_GENDER, tombstones)
+                + "END");
+    }
+
+    /**
+     * Create the triggers that append every write to the managers to the change log, as they are
+     * in the given schema version. A manager whose team is renamed counts as updated, since its
+     * team column changes. From version 8 setting the tombstone of a manager counts as deleting
+     * it, and undoing that as inserting it again; nothing is logged for a manager that stays
+     * deleted, or when it is purged.
+     *
+     * Each migration passes its own version, so the triggers it creates stay the same however
+     * this method changes for later versions.
+     */
+    private static void createChangeLogTriggers(SQLiteDatabase db, int version) {
+        boolean tombstones = version >= TOMBSTONES_VERSION;
+        String deleted = ManagerEntry.COLUMN_MANAGER_DELETED;
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_insert AFTER INSERT ON "
+                + ManagerEntry.TABLE_NAME + " BEGIN "
+                + logChange("new." + ManagerEntry._ID, "", String.valueOf(ChangeEntry.KIND_INSERT))
+                + "END");
+        if (tombstones) {
+            db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_update AFTER UPDATE ON "
+                    + ManagerEntry.TABLE_NAME + " WHEN old." + deleted + " IS NULL OR new."
+                    + deleted + " IS NULL BEGIN "
+                    + logChange("new." + ManagerEntry._ID, "", "CASE WHEN new." + deleted
+                            + " IS NOT NULL THEN " + ChangeEntry.KIND_DELETE + " WHEN old."
+                            + deleted + " IS NOT NULL THEN " + ChangeEntry.KIND_INSERT + " ELSE "
+                            + ChangeEntry.KIND_UPDATE + " END")
+                    + "END");
+        } else {
+            db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_update AFTER UPDATE ON "
+                    + ManagerEntry.TABLE_NAME + " BEGIN "
+                    + logChange("new." + ManagerEntry._ID, "",
+                            String.valueOf(ChangeEntry.KIND_UPDATE))
+                    + "END");
+        }
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                + ManagerEntry.TABLE_NAME
+                + (tombstones ? " WHEN old." + deleted + " IS NULL" : "") + " BEGIN "
+                + logChange("old." + ManagerEntry._ID, "", String.valueOf(ChangeEntry.KIND_DELETE))
+                + "END");
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_team_update AFTER UPDATE OF "
+                + TeamEntry.COLUMN_TEAM_NAME + " ON " + TeamEntry.TABLE_NAME
+                + " WHEN old." + TeamEntry.COLUMN_TEAM_NAME + " IS NOT new."
+                + TeamEntry.COLUMN_TEAM_NAME + " BEGIN "
+                + logChange(ManagerEntry._ID, " FROM " + ManagerEntry.TABLE_NAME + " WHERE "
+                        + ManagerEntry.COLUMN_MANAGER_TEAM_ID + " = new." + TeamEntry._ID
+                        + (tombstones ? " AND " + NOT_DELETED : ""),
+                        String.valueOf(ChangeEntry.KIND_UPDATE))
+                + "END");
+    }
+
+    /**
+     * Returns the trigger statements that log a change for the managers given by
+     * "SELECT managerId from", such as "new._id" with an empty from. The kind of the change is
+     * an SQL expression. Any earlier change of those managers is deleted first, which compacts
+     * the log down to the latest change of each manager.
+     *
+     * The old change is deleted rather than replaced with INSERT OR REPLACE, because a trigger's
+     * conflict clause is overridden by the one of the statement that fired it.
+     */
+    private static String logChange(String managerId, String from, String kind) {
+        return "DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE "
+                + ChangeEntry.COLUMN_MANAGER_ID + " IN (SELECT " + managerId + from + "); "
+                + "INSERT INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_MANAGER_ID
+                + ", " + ChangeEntry.COLUMN_KIND + ") SELECT " + managerId + ", " + kind + from
+                + "; ";
+    }
+
+    /**
+     * Returns the trigger statements that add the manager in the "new" row to its group in the
+     * given totals table. Managers whose group column is null aren't counted, and with
+     * tombstones neither are deleted ones.
+     *
+     * The group row is added with NOT EXISTS rather than INSERT OR IGNORE, because a trigger's
+     * conflict clause is overridden by the one of the statement that fired it.
+     */
+    private static String addToStats(String table, String groupColumn, String managerColumn,
+            boolean tombstones) {
+        String live = tombstones ? " AND new." + NOT_DELETED : "";
+        return "INSERT INTO " + table + " (" + groupColumn + ") SELECT new."
+                + managerColumn + " WHERE new." + managerColumn + " IS NOT NULL" + live
+                + " AND NOT EXISTS"
+                + " (SELECT 1 FROM " + table + " WHERE " + groupColumn + " = new."
+                + managerColumn + "); "
+                + "UPDATE " + table + " SET "
+                + StatsEntry.COLUMN_MANAGER_COUNT + " = " + StatsEntry.COLUMN_MANAGER_COUNT + " + 1, "
+                + StatsEntry.COLUMN_TROPHY_TOTAL + " = " + StatsEntry.COLUMN_TROPHY_TOTAL
+                + " + new." + ManagerEntry.COLUMN_MANAGER_TROPHIES + ", "
+                + StatsEntry.COLUMN_MAX_TROPHIES + " = max(" + StatsEntry.COLUMN_MAX_TROPHIES
+                + ", new." + ManagerEntry.COLUMN_MANAGER_TROPHIES + ")"
+                + " WHERE " + groupColumn + " = new." + managerColumn + live + "; ";
+    }
+
+    /**
+     * Returns the trigger statements that take the manager in the "old" row out of its group in
+     * the given totals table, unless with tombstones it was deleted and so already out of it. The
+     * most trophies of the group are looked up again from the managers that are left, through
+     * the (group, trophies) index.
+     */
+    private static String removeFromStats(String table, String groupColumn, String managerColumn,
+            boolean tombstones) {
+        return "UPDATE " + table + " SET "
+                + StatsEntry.COLUMN_MANAGER_COUNT + " = " + StatsEntry.COLUMN_MANAGER_COUNT + " - 1, "
+                + StatsEntry.COLUMN_TROPHY_TOTAL + " = " + StatsEntry.COLUMN_TROPHY_TOTAL
+                + " - old." + ManagerEntry.COLUMN_MANAGER_TROPHIES + ", "
+                + StatsEntry.COLUMN_MAX_TROPHIES + " = ifnull((SELECT max("
+                + ManagerEntry.COLUMN_MANAGER_TROPHIES + ") FROM " + ManagerEntry.TABLE_NAME
+                + " WHERE " + managerColumn + " = old." + managerColumn
+                + (tombstones ? " AND " + NOT_DELETED : "") + "), 0)"
+                + " WHERE " + groupColumn + " = old." + managerColumn
+                + (tombstones ? " AND old." + NOT_DELETED : "") + "; "
+                + "DELETE FROM " + table + " WHERE " + groupColumn + " = old." + managerColumn
+                + " AND " + StatsEntry.COLUMN_MANAGER_COUNT + " <= 0; ";
+    }
+
+    /**
+     * Returns an SQL expression that folds the given column the same way
+     * {@link #foldForSearch(String)} folds text.
+     */
+    private static String foldExpression(String column) {
+        String expression = column;
+        for (String[] letter : FOLDED_LETTERS) {
+            expression = "replace(" + expression + ", '" + letter[0] + "', '" + letter[1] + "')";
+        }
+        return "lower(" + expression + ")";
+    }
+
+    /**
+     * Returns the given text the way it is stored in the search index: lowercase, and with
+     * Romanian diacritics folded to plain letters, so that "Constanta" matches "Constanța".
+     */
+    static String foldForSearch(String text) {
+        for (String[] letter : FOLDED_LETTERS) {
+            text = text.replace(letter[0], letter[1]);
+        }
+
+        // Only lowercase ASCII letters, to match SQLite's lower()
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
     }
 }
\ No newline at end of file
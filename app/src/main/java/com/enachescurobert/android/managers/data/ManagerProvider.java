@@ -15,21 +15,42 @@
  */
 package com.enachescurobert.android.managers.data;
 
+import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import com.enachescurobert.android.managers.CatalogActivity;
 import com.enachescurobert.android.managers.EditorActivity;
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
 import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.StatsEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.TeamEntry;
 
 /**
  * {@link ContentProvider} for Managers app.
@@ -45,6 +66,24 @@ public class ManagerProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single manager in the managers table */
     private static final int MANAGER_ID = 101;
 
+    /** URI matcher code for the content URI that searches the managers table */
+    private static final int MANAGER_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the teams table */
+    private static final int TEAMS = 200;
+
+    /** URI matcher code for the content URI for a single team in the teams table */
+    private static final int TEAM_ID = 201;
+
+    /** URI matcher code for the content URI for the totals per team */
+    private static final int STATS_TEAMS = 300;
+
+    /** URI matcher code for the content URI for the totals per gender */
+    private static final int STATS_GENDERS = 301;
+
+    /** URI matcher code for the content URI for the change log */
+    private static final int CHANGES = 400;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -71,37 +110,207 @@ public class ManagerProvider extends ContentProvider {
         // For enachescurobert, "content://com.enachescurobert.android.managers/managers/3" matches, but
         // "content://com.enachescurobert.android.managers/managers" (without a number at the end) doesn't match.
         sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_MANAGERS + "/#", MANAGER_ID);
+
+        // The content URI of the form "content://com.enachescurobert.android.managers/managers/search" will map
+        // to the integer code {@link #MANAGER_SEARCH}. This URI is used to search the managers by
+        // name and team, with the search text in the "q" query parameter.
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY,
+                ManagerContract.PATH_MANAGERS + "/" + ManagerContract.PATH_SEARCH, MANAGER_SEARCH);
+
+        // The content URIs of the form "content://com.enachescurobert.android.managers/teams" and
+        // "content://com.enachescurobert.android.managers/teams/#" will map to the integer codes
+        // {@link #TEAMS} and {@link #TEAM_ID}, for MULTIPLE rows or ONE single row of the teams table.
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_TEAMS, TEAMS);
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_TEAMS + "/#", TEAM_ID);
+
+        // The content URIs of the form "content://com.enachescurobert.android.managers/stats/teams"
+        // and "content://com.enachescurobert.android.managers/stats/genders" will map to the
+        // integer codes {@link #STATS_TEAMS} and {@link #STATS_GENDERS}. They are read-only.
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_STATS + "/"
+                + ManagerContract.PATH_STATS_TEAMS, STATS_TEAMS);
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_STATS + "/"
+                + ManagerContract.PATH_STATS_GENDERS, STATS_GENDERS);
+
+        // The content URI of the form "content://com.enachescurobert.android.managers/changes"
+        // will map to the integer code {@link #CHANGES}. It is read-only, and the "since" query
+        // parameter narrows it down to the changes after a sequence number.
+        sUriMatcher.addURI(ManagerContract.CONTENT_AUTHORITY, ManagerContract.PATH_CHANGES, CHANGES);
     }
 
+    /**
+     * Characters the FTS "simple" tokenizer splits words on: every ASCII character that isn't a
+     * letter or a digit.
+     */
+    private static final String SEARCH_SEPARATORS =
+            "[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+";
+
+    /**
+     * Most managers a single write notifies one by one. Past that, listeners are better off
+     * reloading the managers than looking each of them up.
+     */
+    static final int MAX_ROW_NOTIFICATIONS = 50;
+
+    /** Columns a row given to {@link #bulkInsert(Uri, ContentValues[])} may hold */
+    private static final String[] BULK_INSERT_COLUMNS = {
+            ManagerEntry.COLUMN_MANAGER_NAME,
+            ManagerEntry.COLUMN_MANAGER_TEAM,
+            ManagerEntry.COLUMN_MANAGER_GENDER,
+            ManagerEntry.COLUMN_MANAGER_TROPHIES };
+
+    /** Name of the file the provider's settings are kept in */
+    private static final String SETTINGS_NAME = "manager_provider";
+
+    /** Setting with the slow query threshold, or {@link SlowQueryLog#OFF} */
+    private static final String SETTING_SLOW_QUERY_THRESHOLD_MILLIS = "slow_query_threshold_ms";
+
     /** Database helper object */
     private ManagerDbHelper mDbHelper;
 
+    /** Coalesces the change notifications sent after writes */
+    private ChangeNotifier mNotifier;
+
+    /** Managers looked up by _id most recently */
+    private ManagerCache mCache;
+
+    /** Results of the other queries asked most recently */
+    private QueryCache mQueryCache;
+
+    /** How many requests the provider answered, and how long they took */
+    private ProviderMetrics mMetrics;
+
+    /** The queries that took too long, once a threshold is set */
+    private SlowQueryLog mSlowQueries;
+
+    /** Removes the deleted managers for good once they can't be brought back */
+    private ManagerPurger mPurger;
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new ManagerDbHelper(getContext());
+        // Share the database, the cache and the notifications with the ManagerRepository
+        ManagerData data = ManagerData.get(getContext());
+        mDbHelper = data.dbHelper;
+        mNotifier = data.notifier;
+        mCache = data.cache;
+        mPurger = data.purger;
+        mQueryCache = new QueryCache();
+        mMetrics = new ProviderMetrics(
+                new int[] { MANAGERS, MANAGER_ID, MANAGER_SEARCH, TEAMS, TEAM_ID, STATS_TEAMS,
+                        STATS_GENDERS, CHANGES },
+                new String[] { "managers", "manager_id", "manager_search", "teams", "team_id",
+                        "stats_teams", "stats_genders", "changes" });
+
+        // Turn the slow query log back on if it was on before
+        mSlowQueries = new SlowQueryLog();
+        mSlowQueries.setThresholdMillis(getSettings().getLong(
+                SETTING_SLOW_QUERY_THRESHOLD_MILLIS, SlowQueryLog.OFF));
+
+        // Finish whatever purge the app was killed in the middle of
+        mPurger.schedule(0);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Query the given URI. If the cancellation signal is cancelled, the query stops where it is,
+     * even in the middle of a scan, and throws an
+     * {@link android.os.OperationCanceledException}. Only Jelly Bean and later call this with a
+     * signal.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        int match = sUriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        Cursor cursor;
+        try {
+            cursor = queryMatch(match, uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } catch (RuntimeException e) {
+            // Whoever cancelled the query no longer wants it, which isn't an error. The
+            // exception class itself only came with Jelly Bean, so check the signal instead.
+            if (cancellationSignal == null || !cancellationSignal.isCanceled()) {
+                mMetrics.recordError(ProviderMetrics.OP_QUERY, match);
+            }
+            throw e;
+        }
+        // Only the time: counting the rows would run a query the caller may never step through
+        mMetrics.record(ProviderMetrics.OP_QUERY, match, start);
+        return cursor;
+    }
+
+    /**
+     * Query the URI, which the URI matcher matched to the given code.
+     */
+    private Cursor queryMatch(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        // Changes to single managers are notified at their own URIs, which are under the
+        // managers content URI but not under the search one, so searches watch the managers
+        Uri notificationUri = match == MANAGER_SEARCH ? ManagerEntry.CONTENT_URI : uri;
+
+        // Answer the query from the result cache if it was asked before and nothing has been
+        // written since. Single managers have a cache of their own, and the change log is read
+        // from a different point every time, so caching it would only fill the cache. A batch
+        // sees its own writes before it commits, and the generation only moves once it does,
+        // so queries inside one neither read nor fill the cache.
+        String cacheKey = null;
+        long generation = 0;
+        if (match != MANAGER_ID && match != CHANGES && !mNotifier.inBatch()) {
+            generation = mNotifier.generation();
+            cacheKey = QueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+            cursor = mQueryCache.get(cacheKey, generation);
+            if (cursor != null) {
+                cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+                return cursor;
+            }
+        }
+
         switch (match) {
+            case MANAGER_SEARCH:
+                // For the MANAGER_SEARCH code, narrow the selection down to the managers whose
+                // _id comes out of the full-text search index, then carry on as for MANAGERS.
+                String matchQuery = buildMatchQuery(
+                        uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_SEARCH));
+                if (matchQuery != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ManagerEntry._ID
+                            + " IN (SELECT docid FROM " + ManagerDbHelper.SEARCH_TABLE_NAME
+                            + " WHERE " + ManagerDbHelper.SEARCH_TABLE_NAME + " MATCH ?)");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { matchQuery });
+                }
+                // Fall through
             case MANAGERS:
-                // For the MANAGERS code, query the managers table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
+                // If the URI asks for a page, hand it over to the keyset pagination query.
+                if (uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                }
+
+                // For the MANAGERS code, query the managers (joined with their team names) with
+                // the given projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the managers table.
-                cursor = database.query(ManagerEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME, projection,
+                        selection, selectionArgs, sortOrder, null, cancellationSignal);
                 break;
             case MANAGER_ID:
+                // Answer from the cache if it holds every column that was asked for
+                if (Manager.hasColumns(projection)) {
+                    cursor = queryCachedManager(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // For the MANAGER_ID code, extract out the ID from the URI.
                 // For an enachescurobert URI such as "content://com.enachescurobert.android.managers/managers/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -115,29 +324,363 @@ public class ManagerProvider extends ContentProvider {
 
                 // This will perform a query on the managers table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ManagerEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME, projection,
+                        selection, selectionArgs, sortOrder, null, cancellationSignal);
+                break;
+            case TEAMS:
+                cursor = mSlowQueries.query(database, TeamEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null, cancellationSignal);
+                break;
+            case TEAM_ID:
+                selection = TeamEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = mSlowQueries.query(database, TeamEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null, cancellationSignal);
+                break;
+            case STATS_TEAMS:
+                // The totals are kept up to date by the database, so this reads one row per team
+                cursor = mSlowQueries.query(database, ManagerDbHelper.TEAM_STATS_VIEW_NAME,
+                        projection, selection, selectionArgs, sortOrder, null, cancellationSignal);
+                break;
+            case STATS_GENDERS:
+                cursor = mSlowQueries.query(database, StatsEntry.GENDERS_TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder, null, cancellationSignal);
                 break;
+            case CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+
+                // The log only grows when the managers change, so that's what to observe
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ManagerEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        // Keep the rows for the next time the same query is asked
+        if (cacheKey != null) {
+            cursor = mQueryCache.put(cacheKey, generation, cursor);
+        }
+
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         // Return the cursor
         return cursor;
     }
 
+    /**
+     * Query one page of managers, in the order given by the
+     * {@link ManagerEntry#QUERY_PARAMETER_SORT} query parameter and then by _id. The page starts
+     * right after the row given by the {@link ManagerEntry#QUERY_PARAMETER_AFTER_KEY} and
+     * {@link ManagerEntry#QUERY_PARAMETER_AFTER_ID} query parameters (or at the start of the
+     * table if they are missing), so SQLite seeks straight to it instead of stepping over every
+     * earlier row the way an OFFSET would.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
+        // Pages only line up with each other if they all use the same order, and only the
+        // orders that have an index to walk are allowed
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Paged queries can't be given a sort order " + uri);
+        }
+        ManagerSql.PageSort sort = pageSortOf(uri);
+
+        int limit;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+
+        String afterKey = uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_AFTER_KEY);
+        String afterId = uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_AFTER_ID);
+        if ((afterKey == null) != (afterId == null)) {
+            throw new IllegalArgumentException("Page key requires both a key and an _id " + uri);
+        }
+
+        if (projection == null) {
+            projection = Manager.COLUMNS;
+        }
+
+        if (sort == ManagerSql.SORT_BY_TEAM) {
+            return queryTeamPage(database, projection, selection, selectionArgs, limit,
+                    afterKey, afterId, cancellationSignal);
+        }
+
+        if (afterKey != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, sort.after());
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] { afterKey, afterKey, afterId });
+        }
+        return mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME,
+                ManagerSql.withPageKey(projection, sort.column), selection, selectionArgs,
+                sort.orderBy(), String.valueOf(limit), cancellationSignal);
+    }
+
+    /**
+     * Query one page of managers sorted by team. The managers without a team come first, in _id
+     * order, and then the others by team name. A team name is never empty, so the rows without
+     * a team have an empty page key.
+     *
+     * SQLite can't walk an index across the join with the teams for both at once, so they are
+     * read by two queries: one walking the managers without a team, and one walking the team
+     * names and each team's managers.
+     */
+    private Cursor queryTeamPage(SQLiteDatabase database, String[] projection, String selection,
+                                 String[] selectionArgs, int limit, String afterKey,
+                                 String afterId, CancellationSignal cancellationSignal) {
+        Cursor withoutTeam = null;
+        Cursor withTeam;
+        try {
+            if (afterKey == null || afterKey.isEmpty()) {
+                String teamSelection = ManagerEntry.COLUMN_MANAGER_TEAM_ID + " IS NULL";
+                String[] teamArgs = selectionArgs;
+                if (afterKey != null) {
+                    teamSelection += " AND " + ManagerEntry._ID + " > ?";
+                    teamArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { afterId });
+                }
+                withoutTeam = mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME,
+                        ManagerSql.withPageKey(projection, "''"),
+                        DatabaseUtils.concatenateWhere(selection, teamSelection), teamArgs,
+                        ManagerEntry._ID, String.valueOf(limit), cancellationSignal);
+                int count = withoutTeam.getCount();
+                if (count == limit) {
+                    return withoutTeam;
+                }
+
+                // Carry on from the first team
+                limit -= count;
+                afterKey = "";
+                afterId = "0";
+            }
+
+            withTeam = mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME,
+                    ManagerSql.withPageKey(projection, ManagerSql.SORT_BY_TEAM.column),
+                    DatabaseUtils.concatenateWhere(selection, ManagerSql.SORT_BY_TEAM.after()),
+                    DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { afterKey, afterKey, afterId }),
+                    ManagerSql.SORT_BY_TEAM.orderBy(), String.valueOf(limit), cancellationSignal);
+        } catch (RuntimeException e) {
+            // Counting the managers without a team runs their query, which can throw too
+            if (withoutTeam != null) {
+                withoutTeam.close();
+            }
+            throw e;
+        }
+        if (withoutTeam == null) {
+            return withTeam;
+        }
+        return new MergeCursor(new Cursor[] { withoutTeam, withTeam });
+    }
+
+    /**
+     * Returns the order of a paged query, out of the ones given by its
+     * {@link ManagerEntry#QUERY_PARAMETER_SORT} query parameter.
+     */
+    private static ManagerSql.PageSort pageSortOf(Uri uri) {
+        String sort = uri.getQueryParameter(ManagerEntry.QUERY_PARAMETER_SORT);
+        if (sort == null || sort.equals(ManagerEntry.SORT_NAME)) {
+            return ManagerSql.SORT_BY_NAME;
+        } else if (sort.equals(ManagerEntry.SORT_TEAM)) {
+            return ManagerSql.SORT_BY_TEAM;
+        } else if (sort.equals(ManagerEntry.SORT_TROPHIES)) {
+            return ManagerSql.SORT_BY_TROPHIES;
+        } else if (sort.equals(ManagerEntry.SORT_RECENT)) {
+            return ManagerSql.SORT_BY_RECENT;
+        }
+        throw new IllegalArgumentException("Unknown sort order " + sort + " for " + uri);
+    }
+
+    /**
+     * Query a single manager, from {@link #mCache} if it's there and otherwise from the database,
+     * in which case the whole row is cached for the next time. The row is copied into a
+     * {@link MatrixCursor} with the given projection.
+     */
+    private Cursor queryCachedManager(SQLiteDatabase database, long id, String[] projection) {
+        Manager record = mCache.get(id);
+        if (record == null) {
+            long generation = mCache.generation();
+            Cursor cursor = mSlowQueries.query(database, ManagerDbHelper.DETAILS_VIEW_NAME,
+                    Manager.COLUMNS, ManagerEntry._ID + "=?",
+                    new String[] { String.valueOf(id) }, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    record = Manager.fromCursor(cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (record != null) {
+                mCache.put(record, generation);
+            }
+        }
+
+        String[] columns = projection == null ? Manager.COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (record != null) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = record.get(columns[i]);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Query the change log for the changes after the sequence number in the "since" parameter
+     * of the URI, or for all of them if there isn't one. If the log no longer holds every change
+     * after it, because the managers of some were purged, the whole log is returned instead,
+     * with {@link ChangeEntry#EXTRA_RESET} set in the extras of the cursor.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        long since = 0;
+        String parameter = uri.getQueryParameter(ChangeEntry.QUERY_PARAMETER_SINCE);
+        if (parameter != null) {
+            try {
+                since = Long.parseLong(parameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sequence number for " + uri);
+            }
+        }
+        if (sortOrder == null) {
+            sortOrder = ChangeEntry.COLUMN_SEQUENCE;
+        }
+
+        // Only the changes after the given sequence number, which the primary key seeks
+        // straight to, oldest first so a reader can remember the last one it saw
+        if (since >= changesFloor(database)) {
+            Cursor cursor = mSlowQueries.query(database, ManagerDbHelper.CHANGES_VIEW_NAME,
+                    projection, DatabaseUtils.concatenateWhere(selection,
+                            ChangeEntry.COLUMN_SEQUENCE + ">?"),
+                    DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(since) }),
+                    sortOrder, null, cancellationSignal);
+
+            // The purger may have taken changes out while the rows were read. Once they are
+            // in the cursor's window, a floor that is still below the sequence number means
+            // none were missed.
+            boolean complete;
+            try {
+                cursor.getCount();
+                complete = since >= changesFloor(database);
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            if (complete) {
+                return cursor;
+            }
+            cursor.close();
+        }
+
+        // The reader has missed changes that are gone, so it has to start over
+        Cursor cursor = mSlowQueries.query(database, ManagerDbHelper.CHANGES_VIEW_NAME,
+                projection, selection, selectionArgs, sortOrder, null, cancellationSignal);
+        Bundle extras = new Bundle(1);
+        extras.putBoolean(ChangeEntry.EXTRA_RESET, true);
+        return new ExtrasCursor(cursor, extras);
+    }
+
+    /**
+     * Returns the highest sequence number of a change that was taken out of the change log.
+     */
+    private static long changesFloor(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + ChangeEntry.COLUMN_SEQUENCE
+                + " FROM " + ManagerDbHelper.CHANGES_FLOOR_TABLE_NAME, null);
+    }
+
+    /**
+     * Returns the _ids of the managers in the managers table that match the given selection, in
+     * _id order, at most limit of them unless it is null.
+     */
+    private static long[] selectManagerIds(SQLiteDatabase database, String selection,
+                                           String[] selectionArgs, String limit) {
+        Cursor cursor = database.query(ManagerEntry.TABLE_NAME, new String[] { ManagerEntry._ID },
+                selection, selectionArgs, null, null, ManagerEntry._ID, limit);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Forget the cached copies of the given managers, or of all of them if ids is null.
+     */
+    private void invalidateManagers(long[] ids) {
+        if (ids == null) {
+            mCache.invalidateAll();
+            return;
+        }
+        for (long id : ids) {
+            mCache.invalidate(id);
+        }
+    }
+
+    /**
+     * Turn the text typed by the user into an FTS MATCH query where every word is a prefix, so
+     * "hag vii" finds "Gheorghe Hagi" at "FC Viitorul". The text is folded the same way as the
+     * search index, and everything that the FTS tokenizer treats as a separator is dropped, which
+     * also keeps quotes and operators out of the query. Returns null if there are no words.
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : ManagerDbHelper.foldForSearch(text).split(SEARCH_SEPARATORS)) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        Uri newUri;
+        try {
+            newUri = insertMatch(match, uri, contentValues);
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.OP_INSERT, match);
+            throw e;
+        }
+        mMetrics.record(ProviderMetrics.OP_INSERT, match, start, newUri == null ? 0 : 1);
+        return newUri;
+    }
+
+    /**
+     * Insert into the URI, which the URI matcher matched to the given code.
+     */
+    private Uri insertMatch(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             case MANAGERS:
                 return insertManager(uri, contentValues);
+            case TEAMS:
+                return insertTeam(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -148,45 +691,235 @@ public class ManagerProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertManager(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(ManagerEntry.COLUMN_MANAGER_NAME);
-        //if (name == null) {
-        //if (name == null || name.isEmpty()) {
-        if(TextUtils.isEmpty(name)){
-            throw new IllegalArgumentException("Manager requires a name");
+        // Check the name, the gender and, if they are provided, the trophies. Managers without
+        // a gender aren't valid, and those without trophies get the column default.
+        Integer gender = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_GENDER);
+        Integer trophies = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_TROPHIES);
+        ManagerValidator.check(values.getAsString(ManagerEntry.COLUMN_MANAGER_NAME),
+                gender == null ? -1 : gender, trophies == null ? 0 : trophies);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
+        // Insert the new manager with the given values, along with its team if it's a new one
+        long id;
+        TeamResolver teams = new TeamResolver(database);
+        database.beginTransactionNonExclusive();
+        try {
+            id = database.insert(ManagerEntry.TABLE_NAME, null, toTableValues(values, teams));
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+            teams.close();
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
         }
 
-        // Check that the gender is valid
-        Integer gender = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_GENDER);
-        if (gender == null || !ManagerEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Manager requires valid gender");
+        // Notify all listeners that the new manager has been added
+        notifyManagersChanged(new long[] { id }, ChangeEntry.KIND_INSERT);
+        if (teams.teamsAdded()) {
+            notifyChange(TeamEntry.CONTENT_URI);
         }
 
-        // If the trophies is provided, check that it's greater than or equal to 0 kg
-        Integer trophies = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_TROPHIES);
-        if (trophies != null && trophies < 0) {
-            throw new IllegalArgumentException("Manager requires valid trophies");
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsInserted;
+        try {
+            switch (match) {
+                case MANAGERS:
+                    rowsInserted = bulkInsertManagers(uri, values);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.OP_BULK_INSERT, match);
+            throw e;
         }
+        mMetrics.record(ProviderMetrics.OP_BULK_INSERT, match, start, rowsInserted);
+        return rowsInserted;
+    }
 
-        // No need to check the team, any value is valid (including null).
+    /**
+     * Insert all the given managers into the database inside a single transaction. Every row is
+     * validated with the same rules as {@link #insertManager(Uri, ContentValues)} and written
+     * through one compiled INSERT statement, so the cost per row is a bind and a step instead of
+     * a statement compile, a journal commit and a change notification.
+     *
+     * Rows may only hold the name, team, gender and trophies of a manager. If any row is invalid
+     * or holds any other column, the whole batch is rolled back and nothing is inserted.
+     * Return the number of rows that were inserted.
+     */
+    private int bulkInsertManagers(Uri uri, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
 
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new manager with the given values
-        long id = database.insert(ManagerEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
+        int rowsInserted = 0;
+        SQLiteStatement statement = database.compileStatement(ManagerSql.SQL_INSERT_MANAGER);
+        TeamResolver teams = new TeamResolver(database);
+        database.beginTransactionNonExclusive();
+        try {
+            for (ContentValues row : values) {
+                // Check the manager the same way as a single insert. Trophies that aren't
+                // provided fall back to the column default.
+                checkBulkInsertColumns(row);
+                String name = row.getAsString(ManagerEntry.COLUMN_MANAGER_NAME);
+                int gender = intValue(row.get(ManagerEntry.COLUMN_MANAGER_GENDER), -1);
+                int trophies = intValue(row.get(ManagerEntry.COLUMN_MANAGER_TROPHIES), 0);
+                ManagerValidator.check(name, gender, trophies);
+
+                // No need to check the team, any value is valid (including null).
+                long teamId = teams.resolve(row.getAsString(ManagerEntry.COLUMN_MANAGER_TEAM));
+
+                statement.bindString(1, name);
+                if (teamId == TeamResolver.NO_TEAM) {
+                    statement.bindNull(2);
+                } else {
+                    statement.bindLong(2, teamId);
+                }
+                statement.bindLong(3, gender);
+                statement.bindLong(4, trophies);
+                statement.executeInsert();
+                statement.clearBindings();
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+            teams.close();
+        }
+
+        // Notify all listeners once for the whole batch
+        notifyManagersChanged(uri);
+        if (teams.teamsAdded()) {
+            notifyChange(TeamEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Throws if the given row holds any column that a bulk insert doesn't write. Without this,
+     * values that a single insert rejects, like a deletion time, would be dropped silently and
+     * the manager inserted without them.
+     */
+    private static void checkBulkInsertColumns(ContentValues row) {
+        int known = 0;
+        for (String column : BULK_INSERT_COLUMNS) {
+            if (row.containsKey(column)) {
+                known++;
+            }
+        }
+        // Only look for the odd column out when there is one, so valid rows don't allocate
+        if (known == row.size()) {
+            return;
+        }
+        for (String column : row.keySet()) {
+            if (!Arrays.asList(BULK_INSERT_COLUMNS).contains(column)) {
+                throw new IllegalArgumentException("Bulk insert can't set manager column "
+                        + column);
+            }
+        }
+    }
+
+    /**
+     * Returns the int held by a {@link ContentValues} entry. Unlike
+     * {@link ContentValues#getAsInteger(String)} this doesn't box a new Integer for values that
+     * were stored as another {@link Number} type. Returns the given default if the value is null,
+     * and throws if it isn't a number at all.
+     */
+    private static int intValue(Object value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot convert " + value + " to an integer");
+        }
+    }
+
+    /**
+     * Returns the given manager values the way they are stored in the managers table: a team
+     * name is replaced by the _id of that team, which is added if it doesn't exist yet. The
+     * given values are left untouched.
+     */
+    private static ContentValues toTableValues(ContentValues values, TeamResolver teams) {
+        // Managers are only deleted through delete(), which the undo can bring them back from
+        if (values.containsKey(ManagerEntry.COLUMN_MANAGER_DELETED)) {
+            throw new IllegalArgumentException("Manager can't be given a deletion time");
+        }
+        if (!values.containsKey(ManagerEntry.COLUMN_MANAGER_TEAM)) {
+            return values;
+        }
+        if (values.containsKey(ManagerEntry.COLUMN_MANAGER_TEAM_ID)) {
+            throw new IllegalArgumentException("Manager can't be given both a team and a team _id");
+        }
+
+        ContentValues tableValues = new ContentValues(values);
+        tableValues.remove(ManagerEntry.COLUMN_MANAGER_TEAM);
+        long teamId = teams.resolve(values.getAsString(ManagerEntry.COLUMN_MANAGER_TEAM));
+        if (teamId == TeamResolver.NO_TEAM) {
+            tableValues.putNull(ManagerEntry.COLUMN_MANAGER_TEAM_ID);
+        } else {
+            tableValues.put(ManagerEntry.COLUMN_MANAGER_TEAM_ID, teamId);
+        }
+        return tableValues;
+    }
+
+    /**
+     * Returns a selection on the managers table that picks the same rows as the given selection
+     * on the columns returned by queries, which include the team name.
+     */
+    private static String selectManagers(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return selection;
+        }
+        return ManagerEntry._ID + " IN (SELECT " + ManagerEntry._ID + " FROM "
+                + ManagerDbHelper.DETAILS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Insert a team into the database with the given content values. Return the new content URI
+     * for that specific row in the database, or null if there is already a team with that name.
+     */
+    private Uri insertTeam(Uri uri, ContentValues values) {
+        // Check that the name is not blank
+        String name = values.getAsString(TeamEntry.COLUMN_TEAM_NAME);
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Team requires a name");
+        }
+        values = new ContentValues(values);
+        values.put(TeamEntry.COLUMN_TEAM_NAME, name.trim());
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(TeamEntry.TABLE_NAME, null, values);
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        // Notify all listeners that the data has changed for the manager content URI
-        getContext().getContentResolver().notifyChange(uri, null);
-
-
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        notifyChange(uri);
         return ContentUris.withAppendedId(uri, id);
     }
 
@@ -194,16 +927,39 @@ public class ManagerProvider extends ContentProvider {
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsUpdated;
+        try {
+            rowsUpdated = updateMatch(match, uri, contentValues, selection, selectionArgs);
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.OP_UPDATE, match);
+            throw e;
+        }
+        mMetrics.record(ProviderMetrics.OP_UPDATE, match, start, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the URI, which the URI matcher matched to the given code.
+     */
+    private int updateMatch(int match, Uri uri, ContentValues contentValues, String selection,
+                            String[] selectionArgs) {
         switch (match) {
             case MANAGERS:
-                return updateManager(uri, contentValues, selection, selectionArgs);
+                return updateManager(contentValues, selectManagers(selection), selectionArgs);
             case MANAGER_ID:
                 // For the MANAGER_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = ManagerEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateManager(uri, contentValues, selection, selectionArgs);
+                return updateManager(contentValues, selection, selectionArgs);
+            case TEAMS:
+                return updateTeam(uri, contentValues, selection, selectionArgs);
+            case TEAM_ID:
+                selection = TeamEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateTeam(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -214,13 +970,13 @@ public class ManagerProvider extends ContentProvider {
      * specified in the selection and selection arguments (which could be 0 or 1 or more managers).
      * Return the number of rows that were successfully updated.
      */
-    private int updateManager(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateManager(ContentValues values, String selection, String[] selectionArgs) {
         // If the {@link ManagerEntry#COLUMN_MANAGER_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(ManagerEntry.COLUMN_MANAGER_NAME)) {
             String name = values.getAsString(ManagerEntry.COLUMN_MANAGER_NAME);
             if (name == null) {
-                throw new IllegalArgumentException("Manager requires a name");
+                throw new IllegalArgumentException(ManagerValidator.NAME_REQUIRED);
             }
         }
 
@@ -228,9 +984,7 @@ public class ManagerProvider extends ContentProvider {
         // check that the gender value is valid.
         if (values.containsKey(ManagerEntry.COLUMN_MANAGER_GENDER)) {
             Integer gender = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_GENDER);
-            if (gender == null || !ManagerEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Manager requires valid gender");
-            }
+            ManagerValidator.checkGender(gender == null ? -1 : gender);
         }
 
         // If the {@link ManagerEntry#COLUMN_MANAGER_TROPHIES} key is present,
@@ -238,8 +992,8 @@ public class ManagerProvider extends ContentProvider {
         if (values.containsKey(ManagerEntry.COLUMN_MANAGER_TROPHIES)) {
             // Check that the trophies is greater than or equal to 0 kg
             Integer trophies = values.getAsInteger(ManagerEntry.COLUMN_MANAGER_TROPHIES);
-            if (trophies != null && trophies < 0) {
-                throw new IllegalArgumentException("Manager requires valid trophies");
+            if (trophies != null) {
+                ManagerValidator.checkTrophies(trophies);
             }
         }
 
@@ -253,61 +1007,529 @@ public class ManagerProvider extends ContentProvider {
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ManagerEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Deleted managers can't be changed any more
+        String liveSelection = DatabaseUtils.concatenateWhere(selection,
+                ManagerDbHelper.NOT_DELETED);
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // Perform the update on the database and get the number of rows affected. A new team
+        // is only kept if the update goes through.
+        int rowsUpdated;
+        long[] ids = null;
+        TeamResolver teams = new TeamResolver(database);
+        database.beginTransactionNonExclusive();
+        try {
+            // Find out which managers are about to change, unless it's all of them
+            if (selection != null) {
+                ids = selectManagerIds(database, liveSelection, selectionArgs, null);
+            }
+            rowsUpdated = database.update(ManagerEntry.TABLE_NAME, toTableValues(values, teams),
+                    liveSelection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            teams.close();
+
+            // Only once the transaction is over, so nobody can cache the old rows again
+            invalidateManagers(ids);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that those managers have
+        // changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyManagersChanged(ids, ChangeEntry.KIND_UPDATE);
+            if (teams.teamsAdded()) {
+                notifyChange(TeamEntry.CONTENT_URI);
+            }
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Update teams in the database with the given content values. Renaming a team renames it for
+     * all of its managers as well.
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateTeam(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // If the {@link TeamEntry#COLUMN_TEAM_NAME} key is present,
+        // check that the name is not blank.
+        if (values.containsKey(TeamEntry.COLUMN_TEAM_NAME)) {
+            String name = values.getAsString(TeamEntry.COLUMN_TEAM_NAME);
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Team requires a name");
+            }
+            values = new ContentValues(values);
+            values.put(TeamEntry.COLUMN_TEAM_NAME, name.trim());
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(TeamEntry.TABLE_NAME, values, selection, selectionArgs);
+
+        // The managers of the teams show the new names too
+        mCache.invalidateAll();
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            notifyManagersChanged(ManagerEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsDeleted;
+        try {
+            rowsDeleted = deleteMatch(match, uri, selection, selectionArgs);
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.OP_DELETE, match);
+            throw e;
+        }
+        mMetrics.record(ProviderMetrics.OP_DELETE, match, start, rowsDeleted);
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete from the URI, which the URI matcher matched to the given code.
+     */
+    private int deleteMatch(int match, Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case MANAGERS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ManagerEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteManagers(database, mDbHelper.newDeletionTime(),
+                        selectManagers(selection), selectionArgs);
                 break;
             case MANAGER_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ManagerEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(ManagerEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteManagers(database, mDbHelper.newDeletionTime(), selection,
+                        selectionArgs);
+                break;
+            case TEAMS:
+                // Managers of deleted teams are left without a team
+                rowsDeleted = database.delete(TeamEntry.TABLE_NAME, selection, selectionArgs);
+                mCache.invalidateAll();
+                break;
+            case TEAM_ID:
+                selection = TeamEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = database.delete(TeamEntry.TABLE_NAME, selection, selectionArgs);
+                mCache.invalidateAll();
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // If 1 or more teams were deleted, then notify all listeners that the data at the
+        // given URI has changed, along with the managers that were left without a team. Deleted
+        // managers have already been notified.
+        if (rowsDeleted != 0 && (match == TEAMS || match == TEAM_ID)) {
+            notifyChange(uri);
+            notifyManagersChanged(ManagerEntry.CONTENT_URI);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the managers that match the given selection, forget their cached copies and notify
+     * all listeners that they are gone. Return the number of rows that were deleted.
+     *
+     * The managers are only given a tombstone, the given token of the delete, which hides them
+     * from every query straight away. Setting it touches each row once, without the index and
+     * search updates of removing it, and can be undone within
+     * {@link ManagerContract#UNDO_WINDOW_MILLIS} of the delete committing (see
+     * {@link ManagerContract#METHOD_UNDO_DELETE}). The rows are removed later by the
+     * {@link ManagerPurger}.
+     *
+     * The tombstones are set {@link ManagerPurger#CHUNK_SIZE} managers at a time in _id order,
+     * each chunk in a transaction of its own, so deleting the whole roster never holds the
+     * database for longer than one small update. Only the managers that were there when the
+     * delete started are deleted. Every chunk gets the same token, so one undo still brings all
+     * of them back, and moves the commit time of the delete in
+     * {@link ManagerDbHelper#DELETES_TABLE_NAME} up to its own, so the undo and the purge count
+     * from when the last chunk was committed, however long the delete took.
+     */
+    private int deleteManagers(SQLiteDatabase database, long token, String selection,
+                               String[] selectionArgs) {
+        ContentValues tombstone = new ContentValues(1);
+        tombstone.put(ManagerEntry.COLUMN_MANAGER_DELETED, token);
+        String chunkSelection = DatabaseUtils.concatenateWhere(
+                DatabaseUtils.concatenateWhere(selection, ManagerDbHelper.NOT_DELETED),
+                ManagerSql.ID_RANGE_SELECTION);
+        String[] chunkArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                new String[] { "0", "0" });
+        int lastIdArg = chunkArgs.length - 2;
+        chunkArgs[lastIdArg + 1] = String.valueOf(DatabaseUtils.longForQuery(database,
+                ManagerSql.SQL_MAX_MANAGER_ID, null));
+
+        // The _ids are only sent out if there are few enough of them to notify one by one
+        int rowsDeleted = 0;
+        long[] deletedIds = selection == null ? null : new long[0];
+        try {
+            long[] ids;
+            do {
+                database.beginTransactionNonExclusive();
+                try {
+                    ids = selectManagerIds(database, chunkSelection, chunkArgs,
+                            String.valueOf(ManagerPurger.CHUNK_SIZE));
+                    if (ids.length != 0) {
+                        String[] updateArgs = chunkArgs.clone();
+                        updateArgs[lastIdArg + 1] = String.valueOf(ids[ids.length - 1]);
+                        rowsDeleted += database.update(ManagerEntry.TABLE_NAME, tombstone,
+                                chunkSelection, updateArgs);
+                        database.execSQL(ManagerSql.SQL_RECORD_DELETE,
+                                new Object[] { token, System.currentTimeMillis() });
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                if (ids.length == 0) {
+                    break;
+                }
+                chunkArgs[lastIdArg] = String.valueOf(ids[ids.length - 1]);
+
+                // Only once the chunk is committed, so nobody can cache the old rows again. A
+                // delete of every manager does it too, so they are gone by _id chunk by chunk.
+                invalidateManagers(ids);
+                if (deletedIds != null
+                        && deletedIds.length + ids.length <= MAX_ROW_NOTIFICATIONS) {
+                    int count = deletedIds.length;
+                    deletedIds = Arrays.copyOf(deletedIds, count + ids.length);
+                    System.arraycopy(ids, 0, deletedIds, count, ids.length);
+                } else {
+                    deletedIds = null;
+                }
+            } while (ids.length == ManagerPurger.CHUNK_SIZE);
+        } finally {
+            // The chunks that went through stay deleted, even if a later one failed. Whatever
+            // was cached between the chunks of a delete of every manager goes too.
+            if (rowsDeleted != 0) {
+                if (selection == null) {
+                    invalidateManagers(null);
+                }
+                notifyManagersChanged(deletedIds, ChangeEntry.KIND_DELETE);
+                mPurger.schedule(ManagerPurger.PURGE_DELAY_MILLIS);
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the managers that match the given selection on the managers URI, or every manager
+     * if it is null, for {@link ManagerContract#METHOD_DELETE_MANAGERS}. Returns the number of
+     * managers deleted, along with the token to undo the delete with if there were any.
+     */
+    private Bundle deleteManagersForUndo(String selection) {
+        long start = ProviderMetrics.start();
+        long token = mDbHelper.newDeletionTime();
+        int rowsDeleted;
+        try {
+            rowsDeleted = deleteManagers(mDbHelper.getWritableDatabase(), token,
+                    selectManagers(selection), null);
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.OP_DELETE, MANAGERS);
+            throw e;
+        }
+        mMetrics.record(ProviderMetrics.OP_DELETE, MANAGERS, start, rowsDeleted);
+
+        Bundle result = new Bundle();
+        result.putInt(ManagerContract.KEY_DELETED, rowsDeleted);
+        if (rowsDeleted != 0) {
+            result.putLong(ManagerContract.KEY_DELETE_TOKEN, token);
+        }
+        return result;
+    }
+
+    /**
+     * Bring back the managers of the delete with the given token, if it committed within
+     * {@link ManagerContract#UNDO_WINDOW_MILLIS}. Returns the number of managers brought back.
+     */
+    private int undoDelete(long token) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] tokenArgs = new String[] { String.valueOf(token) };
+        int rowsRestored = 0;
+        database.beginTransactionNonExclusive();
+        try {
+            // A delete that is gone from the table was purged, or undone already
+            long committed = DatabaseUtils.longForQuery(database, "SELECT coalesce(max("
+                    + ManagerDbHelper.COLUMN_DELETE_COMMITTED + "), 0) FROM "
+                    + ManagerDbHelper.DELETES_TABLE_NAME + " WHERE "
+                    + ManagerEntry.COLUMN_MANAGER_DELETED + "=?", tokenArgs);
+            if (committed != 0 && System.currentTimeMillis() - committed
+                    <= ManagerContract.UNDO_WINDOW_MILLIS) {
+                ContentValues restore = new ContentValues(1);
+                restore.putNull(ManagerEntry.COLUMN_MANAGER_DELETED);
+                rowsRestored = database.update(ManagerEntry.TABLE_NAME, restore,
+                        ManagerEntry.COLUMN_MANAGER_DELETED + "=?", tokenArgs);
+                database.delete(ManagerDbHelper.DELETES_TABLE_NAME,
+                        ManagerEntry.COLUMN_MANAGER_DELETED + "=?", tokenArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // The managers are back in every list. The _ids aren't known, and there may be a lot
+        // of them, so the lists reload.
+        if (rowsRestored != 0) {
+            notifyManagersChanged(ManagerEntry.CONTENT_URI);
+        }
+        return rowsRestored;
+    }
+
+    /**
+     * Apply all the given operations inside a single database transaction. Either every operation
+     * is committed or, if any of them fails, none of them are. Change notifications for the
+     * affected URIs are held back until the transaction commits, and each URI is notified once.
+     *
+     * Back-references between operations are resolved by
+     * {@link ContentProvider#applyBatch(ArrayList)}.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // A batch applied from inside another batch joins the outer transaction
+        if (!mNotifier.beginBatch()) {
+            return super.applyBatch(operations);
+        }
+
+        // Other threads can read the old rows until the batch commits, so the cached managers
+        // it changes are invalidated again at the end
+        mCache.beginBatch();
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        boolean committed = false;
+        try {
+            database.beginTransactionNonExclusive();
+            try {
+                ContentProviderResult[] results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+                committed = true;
+                return results;
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mCache.endBatch();
+
+            // Only tell listeners about changes that actually made it to the database
+            mNotifier.endBatch(committed);
+        }
+    }
+
+    /**
+     * Returns the MIME types the managers can be exported as, out of the ones matching the
+     * given filter.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != MANAGERS) {
+            return null;
+        }
+        String type = exportType(mimeTypeFilter);
+        if (type == null) {
+            return null;
+        }
+        // A wildcard filter matches both
+        if (ClipDescription.compareMimeTypes(ManagerContract.MIME_TYPE_JSON, mimeTypeFilter)
+                && ClipDescription.compareMimeTypes(ManagerContract.MIME_TYPE_CSV, mimeTypeFilter)) {
+            return new String[] { ManagerContract.MIME_TYPE_CSV, ManagerContract.MIME_TYPE_JSON };
+        }
+        return new String[] { type };
+    }
+
+    /**
+     * Export all the managers as {@link ManagerContract#MIME_TYPE_CSV} or
+     * {@link ManagerContract#MIME_TYPE_JSON}. The rows are written into a pipe by a background
+     * thread as they are read from the database, so the caller can start reading straight away
+     * and neither side holds the whole table in memory.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String type = sUriMatcher.match(uri) == MANAGERS ? exportType(mimeTypeFilter) : null;
+        if (type == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+
+        // The query doesn't run until the writer moves the cursor, on the writer's thread
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ManagerDbHelper.DETAILS_VIEW_NAME,
+                RosterExporter.COLUMNS, null, null, null, null, ManagerEntry._ID);
+        ParcelFileDescriptor pipe;
+        try {
+            pipe = openPipeHelper(uri, type, opts, cursor, new RosterExporter());
+        } catch (FileNotFoundException e) {
+            cursor.close();
+            throw e;
+        }
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Returns the export MIME type that matches the given filter, preferring CSV, or null if
+     * neither does.
+     */
+    private static String exportType(String mimeTypeFilter) {
+        if (ClipDescription.compareMimeTypes(ManagerContract.MIME_TYPE_CSV, mimeTypeFilter)) {
+            return ManagerContract.MIME_TYPE_CSV;
+        }
+        if (ClipDescription.compareMimeTypes(ManagerContract.MIME_TYPE_JSON, mimeTypeFilter)) {
+            return ManagerContract.MIME_TYPE_JSON;
+        }
+        return null;
+    }
+
+    /**
+     * Handles the provider methods listed in {@link ManagerContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ManagerContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(ManagerContract.KEY_CACHE_HITS, mCache.hitCount());
+            stats.putInt(ManagerContract.KEY_CACHE_MISSES, mCache.missCount());
+            stats.putInt(ManagerContract.KEY_CACHE_EVICTIONS, mCache.evictionCount());
+            stats.putInt(ManagerContract.KEY_CACHE_SIZE, mCache.size());
+            stats.putInt(ManagerContract.KEY_QUERY_CACHE_HITS, mQueryCache.hitCount());
+            stats.putInt(ManagerContract.KEY_QUERY_CACHE_MISSES, mQueryCache.missCount());
+            stats.putInt(ManagerContract.KEY_QUERY_CACHE_BYTES, mQueryCache.size());
+            return stats;
+        }
+        if (ManagerContract.METHOD_GET_METRICS.equals(method)) {
+            Bundle metrics = mMetrics.toBundle();
+            metrics.putLong(ManagerContract.KEY_NOTIFICATIONS_REQUESTED,
+                    mNotifier.requestedCount());
+            metrics.putLong(ManagerContract.KEY_NOTIFICATIONS_SENT, mNotifier.sentCount());
+            return metrics;
+        }
+        if (ManagerContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            long thresholdMillis;
+            try {
+                thresholdMillis = arg == null ? SlowQueryLog.OFF : Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + arg);
+            }
+            mSlowQueries.setThresholdMillis(thresholdMillis);
+            getSettings().edit()
+                    .putLong(SETTING_SLOW_QUERY_THRESHOLD_MILLIS, thresholdMillis)
+                    .apply();
+            return null;
+        }
+        if (ManagerContract.METHOD_DELETE_MANAGERS.equals(method)) {
+            return deleteManagersForUndo(arg);
+        }
+        if (ManagerContract.METHOD_UNDO_DELETE.equals(method)) {
+            long token;
+            try {
+                token = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid delete token " + arg);
+            }
+            Bundle result = new Bundle();
+            result.putInt(ManagerContract.KEY_RESTORED, undoDelete(token));
+            return result;
+        }
+        if (ManagerContract.METHOD_GET_SLOW_QUERIES.equals(method)) {
+            Bundle result = new Bundle();
+            result.putParcelableArrayList(ManagerContract.KEY_SLOW_QUERIES,
+                    mSlowQueries.toBundles());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the provider's settings, which are kept across restarts.
+     */
+    private SharedPreferences getSettings() {
+        return getContext().getSharedPreferences(SETTINGS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mCache.trimMemory(level);
+        mQueryCache.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        mQueryCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. The notification is
+     * coalesced with the others sent in the same batch or in the same short burst of writes.
+     */
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Notify all listeners that the managers at the given URI have changed, along with the
+     * statistics that the database works out from them.
+     */
+    private void notifyManagersChanged(Uri uri) {
+        notifyChange(uri);
+        notifyChange(StatsEntry.CONTENT_URI);
+    }
+
+    /**
+     * Notify all listeners that a change of the given kind happened to each of the given
+     * managers, at its own URI (see {@link ManagerEntry#buildChangeUri(long, int)}), so a list
+     * on screen can patch just those rows. If the _ids aren't known, or there are so many that
+     * reloading would be cheaper, the managers content URI is notified instead.
+     */
+    private void notifyManagersChanged(long[] ids, int kind) {
+        if (ids == null || ids.length > MAX_ROW_NOTIFICATIONS) {
+            notifyManagersChanged(ManagerEntry.CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(ManagerEntry.buildChangeUri(id, kind));
+        }
+        notifyChange(StatsEntry.CONTENT_URI);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case MANAGERS:
+            case MANAGER_SEARCH:
                 return ManagerEntry.CONTENT_LIST_TYPE;
             case MANAGER_ID:
                 return ManagerEntry.CONTENT_ITEM_TYPE;
+            case TEAMS:
+                return TeamEntry.CONTENT_LIST_TYPE;
+            case TEAM_ID:
+                return TeamEntry.CONTENT_ITEM_TYPE;
+            case STATS_TEAMS:
+                return StatsEntry.TEAMS_CONTENT_TYPE;
+            case STATS_GENDERS:
+                return StatsEntry.GENDERS_CONTENT_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+/**
+ * Removes deleted managers from the database for good, on a background thread. Deleting a
+ * manager only sets its tombstone (see {@link ManagerEntry#COLUMN_MANAGER_DELETED}), which is
+ * quick and can be undone; once a manager can't be brought back any more, the purger deletes
+ * its row, along with its search entry. Its last change goes out of the change log too, and
+ * the floor of the log is raised to it, so the log only holds the managers that are still there.
+ *
+ * The rows are deleted {@link #CHUNK_SIZE} at a time, each chunk in a transaction of its own, so
+ * purging thousands of managers never holds the database for longer than one small delete, and
+ * the catalog and the editor can write in between.
+ */
+final class ManagerPurger {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ManagerPurger.class.getSimpleName();
+
+    /** Most managers deleted in one transaction */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * How long after its delete commits a manager stays deleted before it is purged. Well past
+     * the undo window, so a manager is never purged while it can still be brought back.
+     */
+    static final long PURGE_DELAY_MILLIS = 2L * ManagerContract.UNDO_WINDOW_MILLIS;
+
+    /** Tombstones of the deletes that committed at or before the given time */
+    private static final String SQL_DUE_DELETES = "SELECT "
+            + ManagerEntry.COLUMN_MANAGER_DELETED + " FROM " + ManagerDbHelper.DELETES_TABLE_NAME
+            + " WHERE " + ManagerDbHelper.COLUMN_DELETE_COMMITTED + " <= ?";
+
+    /**
+     * One chunk of the managers of the deletes that committed at or before the given time. The
+     * order is total, so every statement of a chunk picks the same managers.
+     */
+    private static final String SQL_DUE_CHUNK = "SELECT " + ManagerEntry._ID + " FROM "
+            + ManagerEntry.TABLE_NAME + " WHERE " + ManagerEntry.COLUMN_MANAGER_DELETED
+            + " IS NOT NULL AND " + ManagerEntry.COLUMN_MANAGER_DELETED
+            + " IN (" + SQL_DUE_DELETES + ") ORDER BY " + ManagerEntry.COLUMN_MANAGER_DELETED
+            + ", " + ManagerEntry._ID + " LIMIT " + CHUNK_SIZE;
+
+    /** Selects the managers of one chunk */
+    private static final String PURGE_SELECTION =
+            ManagerEntry._ID + " IN (" + SQL_DUE_CHUNK + ")";
+
+    /** Selects the changes of the managers of one chunk */
+    private static final String CHANGES_SELECTION =
+            ChangeEntry.COLUMN_MANAGER_ID + " IN (" + SQL_DUE_CHUNK + ")";
+
+    /** Raises the floor of the change log to the last change of the managers of one chunk */
+    private static final String SQL_RAISE_CHANGES_FLOOR = "UPDATE "
+            + ManagerDbHelper.CHANGES_FLOOR_TABLE_NAME + " SET " + ChangeEntry.COLUMN_SEQUENCE
+            + " = max(" + ChangeEntry.COLUMN_SEQUENCE + ", ifnull((SELECT max("
+            + ChangeEntry.COLUMN_SEQUENCE + ") FROM " + ChangeEntry.TABLE_NAME + " WHERE "
+            + CHANGES_SELECTION + "), 0))";
+
+    /** Selects the deletes that committed at or before the given time, once they are purged */
+    private static final String PURGED_DELETES_SELECTION =
+            ManagerDbHelper.COLUMN_DELETE_COMMITTED + " <= ? AND NOT EXISTS (SELECT 1 FROM "
+            + ManagerEntry.TABLE_NAME + " WHERE " + ManagerEntry.COLUMN_MANAGER_DELETED + " = "
+            + ManagerDbHelper.DELETES_TABLE_NAME + "." + ManagerEntry.COLUMN_MANAGER_DELETED
+            + ")";
+
+    /** Commit time of the oldest delete that is left, or 0 if there is none */
+    private static final String SQL_OLDEST_DELETION = "SELECT coalesce(min("
+            + ManagerDbHelper.COLUMN_DELETE_COMMITTED + "), 0) FROM "
+            + ManagerDbHelper.DELETES_TABLE_NAME;
+
+    private final ManagerDbHelper mDbHelper;
+
+    /** Handler of the purge thread */
+    private final Handler mHandler;
+
+    /** Uptime the next purge is posted for, or 0 if none is. Guarded by this. */
+    private long mScheduledAt;
+
+    /** Runs a purge on the purge thread */
+    private final Runnable mPurge = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ManagerPurger.this) {
+                mScheduledAt = 0;
+            }
+            purge();
+        }
+    };
+
+    ManagerPurger(ManagerDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Purge the managers that are due after the given delay, unless a purge is already due by
+     * then.
+     */
+    synchronized void schedule(long delayMillis) {
+        long at = SystemClock.uptimeMillis() + delayMillis;
+        if (mScheduledAt != 0 && mScheduledAt <= at) {
+            return;
+        }
+        mHandler.removeCallbacks(mPurge);
+        mHandler.postAtTime(mPurge, at);
+        mScheduledAt = at;
+    }
+
+    /**
+     * Delete every manager whose delete committed longer than {@link #PURGE_DELAY_MILLIS} ago,
+     * a chunk at a time, then schedule the next purge for when the oldest of the others is due.
+     * Runs on the purge thread, or on the calling thread in tests.
+     */
+    void purge() {
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            String[] dueArgs = new String[] {
+                    String.valueOf(System.currentTimeMillis() - PURGE_DELAY_MILLIS) };
+
+            // Every chunk commits on its own. A chunk that comes back short was the last one.
+            int purged = 0;
+            int rowsDeleted;
+            do {
+                database.beginTransactionNonExclusive();
+                try {
+                    database.execSQL(SQL_RAISE_CHANGES_FLOOR, dueArgs);
+                    database.delete(ChangeEntry.TABLE_NAME, CHANGES_SELECTION, dueArgs);
+                    rowsDeleted = database.delete(ManagerEntry.TABLE_NAME, PURGE_SELECTION,
+                            dueArgs);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                purged += rowsDeleted;
+            } while (rowsDeleted == CHUNK_SIZE);
+
+            // Forget the deletes that have nothing left to purge
+            database.delete(ManagerDbHelper.DELETES_TABLE_NAME, PURGED_DELETES_SELECTION,
+                    dueArgs);
+
+            if (purged != 0) {
+                Log.i(LOG_TAG, "Purged " + purged + " deleted managers");
+                mDbHelper.checkpoint();
+            }
+
+            // Managers deleted since are purged once they are due
+            long oldest = DatabaseUtils.longForQuery(database, SQL_OLDEST_DELETION, null);
+            if (oldest != 0) {
+                schedule(Math.max(0, oldest + PURGE_DELAY_MILLIS - System.currentTimeMillis()));
+            }
+        } catch (RuntimeException e) {
+            // The managers stay hidden, and the next delete schedules another try
+            Log.e(LOG_TAG, "Failed to purge deleted managers", e);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.StatsEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.TeamEntry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed access to the managers for code running in the app's own process. It reads and writes
+ * {@link Manager} objects straight through compiled statements, so saving a manager doesn't
+ * build a {@link android.content.ContentValues} map only for {@link ManagerProvider} to unbox it
+ * again.
+ *
+ * The repository shares the provider's database, caches and change notifications, so whatever
+ * it writes shows up in the provider's queries (and the other way round) exactly as if it had
+ * gone through the provider. The provider stays the way in for everything else.
+ */
+public final class ManagerRepository {
+
+    /** UPDATE statement that replaces every column of one manager */
+    private static final String SQL_UPDATE_MANAGER = "UPDATE " + ManagerEntry.TABLE_NAME + " SET "
+            + ManagerEntry.COLUMN_MANAGER_NAME + "=?, "
+            + ManagerEntry.COLUMN_MANAGER_TEAM_ID + "=?, "
+            + ManagerEntry.COLUMN_MANAGER_GENDER + "=?, "
+            + ManagerEntry.COLUMN_MANAGER_TROPHIES + "=? WHERE "
+            + ManagerEntry._ID + "=? AND " + ManagerDbHelper.NOT_DELETED;
+
+    /**
+     * UPDATE statement that deletes one manager, by setting its tombstone. The row is removed
+     * later by the {@link ManagerPurger}, once the delete is recorded with
+     * {@link ManagerSql#SQL_RECORD_DELETE}.
+     */
+    private static final String SQL_DELETE_MANAGER = "UPDATE " + ManagerEntry.TABLE_NAME
+            + " SET " + ManagerEntry.COLUMN_MANAGER_DELETED + "=? WHERE "
+            + ManagerEntry._ID + "=? AND " + ManagerDbHelper.NOT_DELETED;
+
+    private final ManagerDbHelper mDbHelper;
+    private final ManagerCache mCache;
+    private final ChangeNotifier mNotifier;
+    private final ManagerPurger mPurger;
+
+    /** Compiled the first time they are needed, and only used while holding this */
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mUpdateStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mRecordDeleteStatement;
+
+    private final ManagerWriteQueue mWriteQueue;
+
+    ManagerRepository(ManagerDbHelper dbHelper, ManagerCache cache, ChangeNotifier notifier,
+                      ManagerPurger purger) {
+        mDbHelper = dbHelper;
+        mCache = cache;
+        mNotifier = notifier;
+        mPurger = purger;
+        mWriteQueue = new ManagerWriteQueue(this);
+    }
+
+    /**
+     * Returns the repository of the application the given context belongs to. It shares its
+     * database with {@link ManagerProvider}, whichever of the two is created first.
+     */
+    public static ManagerRepository getInstance(Context context) {
+        return ManagerData.get(context).repository;
+    }
+
+    /**
+     * Add a manager to the database. Returns the _id of the new manager, or {@link Manager#NO_ID}
+     * if it couldn't be added.
+     *
+     * @throws IllegalArgumentException if the manager isn't valid, as for
+     *                                  {@link ManagerProvider#insert}
+     */
+    public long insert(Manager manager) {
+        checkValid(manager);
+        return applyAlone(new Write(Write.INSERT, manager, Manager.NO_ID));
+    }
+
+    /**
+     * Replace the values of the manager with the same _id in the database. Returns false if
+     * there is no such manager.
+     *
+     * @throws IllegalArgumentException if the manager has no _id or isn't valid, as for
+     *                                  {@link ManagerProvider#update}
+     */
+    public boolean update(Manager manager) {
+        checkUpdatable(manager);
+        return applyAlone(new Write(Write.UPDATE, manager, manager.id)) != Manager.NO_ID;
+    }
+
+    /**
+     * Delete the manager with the given _id from the database. Returns false if there is no
+     * such manager. The manager is hidden at once and purged for good
+     * {@link ManagerPurger#PURGE_DELAY_MILLIS} later. No token comes back, so unlike
+     * {@link ManagerContract#METHOD_DELETE_MANAGERS} the delete can't be undone.
+     */
+    public boolean delete(long id) {
+        return applyAlone(new Write(Write.DELETE, null, id)) != Manager.NO_ID;
+    }
+
+    /**
+     * Returns the queue that writes managers on a background thread, for callers that mustn't
+     * wait for the database.
+     */
+    public ManagerWriteQueue getWriteQueue() {
+        return mWriteQueue;
+    }
+
+    /**
+     * Apply the given writes in order, all in one transaction, and set the result of each.
+     * Either they all commit or, if one of them throws, none of them do. Change notifications
+     * are held back until the transaction commits, and each URI is notified once.
+     */
+    synchronized void apply(List<? extends Write> writes) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mInsertStatement == null) {
+            mInsertStatement = database.compileStatement(ManagerSql.SQL_INSERT_MANAGER);
+            mUpdateStatement = database.compileStatement(SQL_UPDATE_MANAGER);
+            mDeleteStatement = database.compileStatement(SQL_DELETE_MANAGER);
+            mRecordDeleteStatement = database.compileStatement(ManagerSql.SQL_RECORD_DELETE);
+        }
+
+        // Inside a batch only if the calling thread isn't in one already
+        boolean notifierBatch = mNotifier.beginBatch();
+        boolean cacheBatch = mCache.beginBatch();
+
+        TeamResolver teams = new TeamResolver(database);
+        boolean committed = false;
+        boolean deleted = false;
+        try {
+            database.beginTransactionNonExclusive();
+            try {
+                for (Write write : writes) {
+                    write.result = write(teams, write);
+                    deleted |= write.kind == Write.DELETE && write.result != Manager.NO_ID;
+                }
+                if (teams.teamsAdded()) {
+                    mNotifier.notifyChange(TeamEntry.CONTENT_URI);
+                }
+                database.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                database.endTransaction();
+                teams.close();
+            }
+        } finally {
+            // Other threads can read the old rows until the transaction ends, so the cached
+            // managers it changed are invalidated again now
+            if (cacheBatch) {
+                mCache.endBatch();
+            }
+            if (notifierBatch) {
+                mNotifier.endBatch(committed);
+            }
+        }
+        if (committed && deleted) {
+            mPurger.schedule(ManagerPurger.PURGE_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Apply one write in its own transaction, and return its result.
+     */
+    private long applyAlone(Write write) {
+        apply(Collections.singletonList(write));
+        return write.result;
+    }
+
+    /**
+     * Run one write inside the open transaction. Returns the _id of the manager it wrote, or
+     * {@link Manager#NO_ID} if it changed nothing.
+     */
+    private long write(TeamResolver teams, Write write) {
+        if (write.kind == Write.INSERT) {
+            long id;
+            try {
+                bind(mInsertStatement, write.manager, teams.resolve(write.manager.team));
+                id = mInsertStatement.executeInsert();
+            } finally {
+                mInsertStatement.clearBindings();
+            }
+            if (id == -1) {
+                return Manager.NO_ID;
+            }
+            notifyManagersChanged(ManagerEntry.buildChangeUri(id, write.kind));
+            return id;
+        }
+
+        SQLiteStatement statement = write.kind == Write.UPDATE ? mUpdateStatement : mDeleteStatement;
+        long tombstone = 0;
+        int rowsChanged;
+        try {
+            if (write.kind == Write.UPDATE) {
+                bind(statement, write.manager, teams.resolve(write.manager.team));
+                statement.bindLong(5, write.id);
+            } else {
+                tombstone = mDbHelper.newDeletionTime();
+                statement.bindLong(1, tombstone);
+                statement.bindLong(2, write.id);
+            }
+            rowsChanged = statement.executeUpdateDelete();
+        } finally {
+            statement.clearBindings();
+        }
+
+        // The purger only finds the deletes that are recorded
+        if (write.kind == Write.DELETE && rowsChanged != 0) {
+            try {
+                mRecordDeleteStatement.bindLong(1, tombstone);
+                mRecordDeleteStatement.bindLong(2, System.currentTimeMillis());
+                mRecordDeleteStatement.execute();
+            } finally {
+                mRecordDeleteStatement.clearBindings();
+            }
+        }
+
+        // Invalidated again when the transaction ends, so nobody can cache the old row
+        mCache.invalidate(write.id);
+        if (rowsChanged == 0) {
+            return Manager.NO_ID;
+        }
+        notifyManagersChanged(ManagerEntry.buildChangeUri(write.id, write.kind));
+        return write.id;
+    }
+
+    /**
+     * Returns the manager with the given _id, or null if there isn't one.
+     */
+    public Manager get(long id) {
+        Manager manager = mCache.get(id);
+        if (manager != null) {
+            return manager;
+        }
+
+        long generation = mCache.generation();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ManagerDbHelper.DETAILS_VIEW_NAME,
+                Manager.COLUMNS, ManagerEntry._ID + "=?", new String[] { String.valueOf(id) },
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                manager = Manager.fromCursor(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (manager != null) {
+            mCache.put(manager, generation);
+        }
+        return manager;
+    }
+
+    /**
+     * Hand every manager to the given visitor, in _id order, until it asks to stop. The managers
+     * are read a cursor window at a time, so the whole table is never in memory at once.
+     * Returns the number of managers visited.
+     */
+    public int stream(Visitor visitor) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ManagerDbHelper.DETAILS_VIEW_NAME,
+                Manager.COLUMNS, null, null, null, null, ManagerEntry._ID);
+        int count = 0;
+        try {
+            while (cursor.moveToNext()) {
+                count++;
+                if (!visitor.visit(Manager.fromCursor(cursor))) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    /** Receives the managers of {@link #stream(Visitor)} */
+    public interface Visitor {
+
+        /**
+         * Called for each manager. Return false to stop the stream.
+         */
+        boolean visit(Manager manager);
+    }
+
+    /**
+     * Check that a manager has an _id and is valid, so it can be updated.
+     */
+    static void checkUpdatable(Manager manager) {
+        if (manager.id == Manager.NO_ID) {
+            throw new IllegalArgumentException("Manager requires an _id to be updated");
+        }
+        checkValid(manager);
+    }
+
+    /**
+     * Check a manager with the same rules as {@link ManagerProvider} checks its values.
+     */
+    static void checkValid(Manager manager) {
+        ManagerValidator.check(manager.name, manager.gender, manager.trophies);
+    }
+
+    /**
+     * Bind the name, team, gender and trophies of a manager to the first four parameters of
+     * a statement, in the order of {@link ManagerSql#SQL_INSERT_MANAGER}.
+     */
+    private static void bind(SQLiteStatement statement, Manager manager, long teamId) {
+        statement.bindString(1, manager.name);
+        if (teamId == TeamResolver.NO_TEAM) {
+            statement.bindNull(2);
+        } else {
+            statement.bindLong(2, teamId);
+        }
+        statement.bindLong(3, manager.gender);
+        statement.bindLong(4, manager.trophies);
+    }
+
+    /**
+     * Notify all listeners that the managers at the given URI have changed, as the provider does
+     * after its own writes. Each write notifies the URI of its own change (see
+     * {@link ManagerEntry#buildChangeUri(long, int)}), so a list on screen can patch that row.
+     */
+    private void notifyManagersChanged(Uri uri) {
+        mNotifier.notifyChange(uri);
+        mNotifier.notifyChange(StatsEntry.CONTENT_URI);
+    }
+
+    /**
+     * One write of {@link #apply(List)}.
+     */
+    static class Write {
+
+        /** Kinds of write, the same as the kinds of change they are notified as */
+        static final int INSERT = ChangeEntry.KIND_INSERT;
+        static final int UPDATE = ChangeEntry.KIND_UPDATE;
+        static final int DELETE = ChangeEntry.KIND_DELETE;
+
+        final int kind;
+
+        /** Values written, or null for a delete */
+        final Manager manager;
+
+        /** _id of the manager updated or deleted, or {@link Manager#NO_ID} for an insert */
+        final long id;
+
+        /** _id of the manager written, or {@link Manager#NO_ID} if nothing was written */
+        long result = Manager.NO_ID;
+
+        Write(int kind, Manager manager, long id) {
+            this.kind = kind;
+            this.manager = manager;
+            this.id = id;
+        }
+    }
+}
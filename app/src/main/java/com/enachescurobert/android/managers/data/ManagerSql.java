@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+/**
+ * The SQL that {@link ManagerProvider} runs against the managers, kept apart from the rest of the
+ * data layer so that it doesn't need Android. The benchmark module compiles this file straight
+ * from the app's sources and runs the same statements through JDBC, so its numbers keep
+ * measuring what the provider does.
+ *
+ * The names are those of {@link ManagerContract} and {@link ManagerDbHelper}, which can't be
+ * used here. ManagerSqlTest checks that they match.
+ */
+public final class ManagerSql {
+
+    /** Tables, views and columns */
+    public static final String MANAGERS = "managers";
+    public static final String TEAMS = "teams";
+    public static final String DETAILS_VIEW = "manager_details";
+    public static final String DELETES = "manager_deletes";
+    public static final String ID = "_id";
+    public static final String NAME = "name";
+    public static final String TEAM = "team";
+    public static final String TEAM_ID = "team_id";
+    public static final String GENDER = "gender";
+    public static final String TROPHIES = "trophies";
+    public static final String DELETED = "deleted";
+    public static final String PAGE_KEY = "page_key";
+    public static final String COMMITTED = "committed";
+
+    /** Every column of a manager, as read from the details view */
+    public static final String[] DETAILS_COLUMNS = { ID, NAME, TEAM, TEAM_ID, GENDER, TROPHIES };
+
+    /** Columns the catalog list reads for every manager, ahead of the page key */
+    public static final String[] PAGE_COLUMNS = { ID, NAME, TEAM };
+
+    /** Selection of the managers that aren't deleted */
+    public static final String NOT_DELETED = DELETED + " IS NULL";
+
+    /** Selection of one row by _id */
+    public static final String ID_SELECTION = ID + "=?";
+
+    /**
+     * Selection of the rows with an _id after the first argument, up to and including the
+     * second
+     */
+    public static final String ID_RANGE_SELECTION = ID + " > ? AND " + ID + " <= ?";
+
+    /** Returns the largest _id in the managers table, or 0 if it's empty */
+    public static final String SQL_MAX_MANAGER_ID =
+            "SELECT ifnull(max(" + ID + "), 0) FROM " + MANAGERS;
+
+    /** Adds a manager, bound with its name, team _id, gender and trophies */
+    public static final String SQL_INSERT_MANAGER = "INSERT INTO " + MANAGERS + " (" + NAME + ", "
+            + TEAM_ID + ", " + GENDER + ", " + TROPHIES + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Records that the delete with a tombstone committed a chunk of managers, bound with the
+     * tombstone and the time of the commit
+     */
+    public static final String SQL_RECORD_DELETE = "INSERT OR REPLACE INTO " + DELETES + " ("
+            + DELETED + ", " + COMMITTED + ") VALUES (?, ?)";
+
+    /** Adds a team, unless one with the same name (ignoring case) is already there */
+    public static final String SQL_INSERT_TEAM =
+            "INSERT OR IGNORE INTO " + TEAMS + " (" + NAME + ") VALUES (?)";
+
+    /** Finds the team with a name, ignoring case */
+    public static final String SQL_FIND_TEAM =
+            "SELECT " + ID + " FROM " + TEAMS + " WHERE " + NAME + " = ?";
+
+    /**
+     * Orders of the paged queries. Each one is an index walk: the name and trophies orders read
+     * covering indexes over the managers, recently added reads the table backwards, and the team
+     * order walks the team names and then each team's managers by _id.
+     */
+    public static final PageSort SORT_BY_NAME = new PageSort(NAME, NAME + " COLLATE NOCASE", false);
+    public static final PageSort SORT_BY_TEAM = new PageSort(TEAM, TEAM + " COLLATE NOCASE", false);
+    public static final PageSort SORT_BY_TROPHIES = new PageSort(TROPHIES, TROPHIES, true);
+    public static final PageSort SORT_BY_RECENT = new PageSort(ID, ID, true);
+
+    private ManagerSql() {
+    }
+
+    /**
+     * Returns the projection with the given expression added as the page key column.
+     */
+    public static String[] withPageKey(String[] projection, String pageKey) {
+        String[] columns = new String[projection.length + 1];
+        System.arraycopy(projection, 0, columns, 0, projection.length);
+        columns[projection.length] = pageKey + " AS " + PAGE_KEY;
+        return columns;
+    }
+
+    /**
+     * Returns the two selections joined with AND, or whichever one isn't empty, as
+     * DatabaseUtils.concatenateWhere() does.
+     */
+    public static String and(String a, String b) {
+        if (a == null || a.isEmpty()) {
+            return b;
+        }
+        if (b == null || b.isEmpty()) {
+            return a;
+        }
+        return "(" + a + ") AND (" + b + ")";
+    }
+
+    /**
+     * Returns the SELECT statement that SQLiteDatabase.query() runs for the given arguments,
+     * the same as SQLiteQueryBuilder.buildQueryString() builds it. Any argument but the table
+     * may be null.
+     */
+    public static String select(String table, String[] columns, String selection, String orderBy,
+                                String limit) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("SELECT ");
+        if (columns == null || columns.length == 0) {
+            sql.append("* ");
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(columns[i]);
+            }
+            sql.append(' ');
+        }
+        sql.append("FROM ").append(table);
+        appendClause(sql, " WHERE ", selection);
+        appendClause(sql, " ORDER BY ", orderBy);
+        appendClause(sql, " LIMIT ", limit);
+        return sql.toString();
+    }
+
+    /**
+     * Returns the UPDATE statement that SQLiteDatabase.update() runs to set the given columns of
+     * the rows matching the selection, in the order of the columns.
+     */
+    public static String update(String table, String[] columns, String selection) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i]).append("=?");
+        }
+        appendClause(sql, " WHERE ", selection);
+        return sql.toString();
+    }
+
+    private static void appendClause(StringBuilder sql, String name, String clause) {
+        if (clause != null && !clause.isEmpty()) {
+            sql.append(name).append(clause);
+        }
+    }
+
+    /** An order of the paged queries */
+    public static final class PageSort {
+
+        /** Column the managers are sorted by, returned as their page key */
+        public final String column;
+
+        /** The column with the collation it's compared with */
+        public final String key;
+
+        public final boolean descending;
+
+        PageSort(String column, String key, boolean descending) {
+            this.column = column;
+            this.key = key;
+            this.descending = descending;
+        }
+
+        /**
+         * Returns the ORDER BY clause, with the _id as tie-breaker. It matches the index that
+         * serves the order column for column, so SQLite reads the rows in order and never sorts.
+         */
+        public String orderBy() {
+            String orderBy = descending ? key + " DESC" : key;
+            return column.equals(ID) ? orderBy : orderBy + ", " + ID;
+        }
+
+        /**
+         * Returns the selection of the rows that sort after a page key and _id, to be given the
+         * key, the key again and the _id. The first term lets SQLite seek the index straight to
+         * the page key; the second skips the rows at the page key up to the _id.
+         */
+        public String after() {
+            String from = descending ? " <= ?" : " >= ?";
+            String beyond = descending ? " < ?" : " > ?";
+            return key + from + " AND (" + key + beyond + " OR " + ID + " > ?)";
+        }
+    }
+}
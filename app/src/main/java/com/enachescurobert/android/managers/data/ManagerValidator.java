@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.text.TextUtils;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+/**
+ * The rules a manager has to follow to be stored: it needs a name, one of the
+ * {@link ManagerEntry} gender values, and a number of trophies that isn't negative. Any team is
+ * valid, including none.
+ *
+ * The provider, the repository, the roster importer and the editor all check managers here, so
+ * they can't drift apart.
+ */
+public final class ManagerValidator {
+
+    /** Messages of the exceptions thrown for managers that break a rule */
+    static final String NAME_REQUIRED = "Manager requires a name";
+    static final String INVALID_GENDER = "Manager requires valid gender";
+    static final String INVALID_TROPHIES = "Manager requires valid trophies";
+
+    private ManagerValidator() {
+    }
+
+    /**
+     * Returns whether the given name is valid, which is when it isn't null or empty.
+     */
+    public static boolean isValidName(String name) {
+        return !TextUtils.isEmpty(name);
+    }
+
+    /**
+     * Returns whether the given number of trophies is valid, which is when it isn't negative.
+     */
+    public static boolean isValidTrophies(int trophies) {
+        return trophies >= 0;
+    }
+
+    /**
+     * Returns whether a manager with the given values is valid.
+     */
+    public static boolean isValid(String name, int gender, int trophies) {
+        return isValidName(name) && ManagerEntry.isValidGender(gender) && isValidTrophies(trophies);
+    }
+
+    /**
+     * Check the values of a manager.
+     *
+     * @throws IllegalArgumentException naming the first rule the values break
+     */
+    public static void check(String name, int gender, int trophies) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException(NAME_REQUIRED);
+        }
+        checkGender(gender);
+        checkTrophies(trophies);
+    }
+
+    /**
+     * Check the gender of a manager.
+     *
+     * @throws IllegalArgumentException if it isn't one of the {@link ManagerEntry} gender values
+     */
+    public static void checkGender(int gender) {
+        if (!ManagerEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException(INVALID_GENDER);
+        }
+    }
+
+    /**
+     * Check the number of trophies of a manager.
+     *
+     * @throws IllegalArgumentException if it is negative
+     */
+    public static void checkTrophies(int trophies) {
+        if (!isValidTrophies(trophies)) {
+            throw new IllegalArgumentException(INVALID_TROPHIES);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes managers on a background thread, so the UI never waits for the database. Every write
+ * is handed to one writer thread, and its callback is run on the main thread once it is done.
+ *
+ * Writes that arrive within {@link #GROUP_WINDOW_MILLIS} of each other are committed together in
+ * one transaction, so a burst of saves pays for a single commit. The writer applies them in the
+ * order they were queued, so later writes to a manager always win over earlier ones.
+ *
+ * A write that can't be done, because the manager isn't valid or the queue has been shut down,
+ * is reported to its callback like any other failed write rather than thrown at the caller.
+ */
+public final class ManagerWriteQueue {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ManagerWriteQueue.class.getSimpleName();
+
+    /** How long the writer waits for more writes to join the first one of a group */
+    static final long GROUP_WINDOW_MILLIS = 10;
+
+    /** Most writes committed in one transaction */
+    static final int MAX_GROUP_SIZE = 64;
+
+    /** Receives the result of a queued write, on the main thread */
+    public interface Callback {
+
+        /**
+         * Called once the write is done, with the _id of the manager it wrote, or
+         * {@link Manager#NO_ID} if it couldn't be written.
+         */
+        void onWriteComplete(long id);
+    }
+
+    private final ManagerRepository mRepository;
+
+    /** Handler the callbacks are run from */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes waiting for the writer thread */
+    private final BlockingQueue<Request> mRequests = new LinkedBlockingQueue<>();
+
+    /** Queued by {@link #shutdown()} to stop the writer once the writes before it are done */
+    private static final Request STOP =
+            new Request(ManagerRepository.Write.DELETE, null, Manager.NO_ID, null);
+
+    /** The writer thread, or null until the first write is queued. Guarded by this. */
+    private Thread mWriter;
+
+    /** Whether writes are no longer taken. Guarded by this. */
+    private boolean mShutdown;
+
+    ManagerWriteQueue(ManagerRepository repository) {
+        mRepository = repository;
+    }
+
+    /**
+     * Queue adding a manager to the database. If the manager isn't valid, as for
+     * {@link ManagerRepository#insert(Manager)}, nothing is queued and the callback is told the
+     * write failed.
+     */
+    public void insert(Manager manager, Callback callback) {
+        Request request =
+                new Request(ManagerRepository.Write.INSERT, manager, Manager.NO_ID, callback);
+        try {
+            ManagerRepository.checkValid(manager);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Not queueing invalid manager", e);
+            post(request);
+            return;
+        }
+        enqueue(request);
+    }
+
+    /**
+     * Queue replacing the values of the manager with the same _id. If the manager has no _id or
+     * isn't valid, as for {@link ManagerRepository#update(Manager)}, nothing is queued and the
+     * callback is told the write failed.
+     */
+    public void update(Manager manager, Callback callback) {
+        Request request =
+                new Request(ManagerRepository.Write.UPDATE, manager, manager.id, callback);
+        try {
+            ManagerRepository.checkUpdatable(manager);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Not queueing invalid manager", e);
+            post(request);
+            return;
+        }
+        enqueue(request);
+    }
+
+    /**
+     * Queue deleting the manager with the given _id.
+     */
+    public void delete(long id, Callback callback) {
+        enqueue(new Request(ManagerRepository.Write.DELETE, null, id, callback));
+    }
+
+    /**
+     * Stop taking writes. The writes queued so far are still done, then the writer thread ends;
+     * any write queued after this fails.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            if (mWriter != null) {
+                mRequests.add(STOP);
+            }
+        }
+    }
+
+    private void enqueue(Request request) {
+        synchronized (this) {
+            if (mShutdown) {
+                Log.w(LOG_TAG, "Write queued after shutdown");
+                post(request);
+                return;
+            }
+            mRequests.add(request);
+            if (mWriter == null) {
+                mWriter = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        writeUntilStopped();
+                    }
+                }, LOG_TAG);
+                mWriter.start();
+            }
+        }
+    }
+
+    /**
+     * Take the queued writes a group at a time and commit each group, until {@link #shutdown()}
+     * stops the writer or its thread is interrupted.
+     */
+    private void writeUntilStopped() {
+        List<Request> group = new ArrayList<>(MAX_GROUP_SIZE);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                takeGroup(group);
+            } catch (InterruptedException e) {
+                // Keep the interrupt for whoever owns the thread, and stop once whatever was
+                // already taken is written
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+            if (group.remove(STOP)) {
+                stopped = true;
+            }
+            if (!group.isEmpty()) {
+                write(group);
+                group.clear();
+            }
+        }
+
+        // Nothing writes what is still queued after an interrupt, so fail it and take no more
+        List<Request> left = new ArrayList<>();
+        synchronized (this) {
+            mShutdown = true;
+            mRequests.drainTo(left);
+        }
+        left.remove(STOP);
+        if (!left.isEmpty()) {
+            Log.w(LOG_TAG, "Writer stopped with " + left.size() + " writes queued");
+            post(left.toArray(new Request[left.size()]));
+        }
+    }
+
+    /**
+     * Wait for a write, then add it to the group along with every other write that arrives
+     * before the group window ends or the group is full.
+     */
+    private void takeGroup(List<Request> group) throws InterruptedException {
+        group.add(mRequests.take());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GROUP_WINDOW_MILLIS);
+        while (group.size() < MAX_GROUP_SIZE) {
+            // Whatever is already queued joins without waiting
+            mRequests.drainTo(group, MAX_GROUP_SIZE - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= MAX_GROUP_SIZE || remaining <= 0) {
+                break;
+            }
+            Request request = mRequests.poll(remaining, TimeUnit.NANOSECONDS);
+            if (request == null) {
+                break;
+            }
+            group.add(request);
+        }
+    }
+
+    /**
+     * Commit a group of writes and post their callbacks. If the group fails as a whole, each of
+     * its writes is retried alone, so one bad write doesn't take the others down with it.
+     */
+    private void write(List<Request> group) {
+        try {
+            mRepository.apply(group);
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                Log.e(LOG_TAG, "Failed to write manager", e);
+                group.get(0).result = Manager.NO_ID;
+            } else {
+                for (Request request : group) {
+                    try {
+                        mRepository.apply(Collections.singletonList(request));
+                    } catch (RuntimeException alone) {
+                        Log.e(LOG_TAG, "Failed to write manager", alone);
+                        request.result = Manager.NO_ID;
+                    }
+                }
+            }
+        }
+
+        post(group.toArray(new Request[group.size()]));
+    }
+
+    /**
+     * Run the callbacks of the given writes on the main thread, with their results.
+     */
+    private void post(final Request... done) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Request request : done) {
+                    if (request.callback != null) {
+                        request.callback.onWriteComplete(request.result);
+                    }
+                }
+            }
+        });
+    }
+
+    /** A queued write and the callback waiting for it */
+    private static final class Request extends ManagerRepository.Write {
+        final Callback callback;
+
+        Request(int kind, Manager manager, long id, Callback callback) {
+            super(kind, manager, id);
+            this.callback = callback;
+        }
+    }
+}
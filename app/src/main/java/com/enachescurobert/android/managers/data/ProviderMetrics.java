@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the requests {@link ManagerProvider} answers and how long they take, per operation and
+ * per URI it matched, cheaply enough to stay on in release builds.
+ *
+ * Recording never takes a lock: every operation and URI has its own histogram, created on first
+ * use, and a request only bumps a few atomic counters in it. Times are kept in log-linear
+ * buckets, like an HDR histogram, with 16 buckets for every power of two microseconds, so any
+ * percentile read back is within about 6% of the real time.
+ */
+class ProviderMetrics {
+
+    /** Operations that are timed */
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+
+    /** Names of the operations, in the keys of {@link #toBundle()} */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete" };
+
+    /** Name of the URIs the provider doesn't know, which can still be asked for */
+    private static final String UNKNOWN_URI_NAME = "unknown";
+
+    /** URI matcher codes, and the names they go by in the keys of {@link #toBundle()} */
+    private final int[] mMatchCodes;
+    private final String[] mMatchNames;
+
+    /** Histogram of every operation on every URI, or null until it's first used */
+    private final AtomicReferenceArray<Histogram> mHistograms;
+
+    /**
+     * Create the metrics of a provider whose URI matcher returns the given codes. The code of
+     * every request must be one of them, or else it is counted under "unknown".
+     */
+    ProviderMetrics(int[] matchCodes, String[] matchNames) {
+        mMatchCodes = matchCodes;
+        mMatchNames = matchNames;
+        mHistograms = new AtomicReferenceArray<>((matchCodes.length + 1) * OPERATION_NAMES.length);
+    }
+
+    /**
+     * Returns the time to hand to {@link #record(int, int, long, int)} once the request is done.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a request that succeeded, without counting its rows.
+     */
+    void record(int operation, int match, long startNanos) {
+        record(operation, match, startNanos, 0);
+    }
+
+    /**
+     * Record a request that succeeded, and the number of rows it wrote.
+     */
+    void record(int operation, int match, long startNanos, int rows) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        histogram(operation, match).record(micros, rows);
+    }
+
+    /**
+     * Record a request that failed with an exception.
+     */
+    void recordError(int operation, int match) {
+        histogram(operation, match).errors.incrementAndGet();
+    }
+
+    /**
+     * Returns every histogram used so far, as described by
+     * {@link ManagerContract#METHOD_GET_METRICS}.
+     */
+    Bundle toBundle() {
+        Bundle metrics = new Bundle();
+        for (int i = 0; i < mHistograms.length(); i++) {
+            Histogram histogram = mHistograms.get(i);
+            if (histogram == null) {
+                continue;
+            }
+            int slot = i / OPERATION_NAMES.length;
+            String uriName = slot < mMatchNames.length ? mMatchNames[slot] : UNKNOWN_URI_NAME;
+            metrics.putBundle(OPERATION_NAMES[i % OPERATION_NAMES.length] + "." + uriName,
+                    histogram.toBundle());
+        }
+        return metrics;
+    }
+
+    private Histogram histogram(int operation, int match) {
+        // A handful of codes, so a scan is quicker than a map lookup
+        int slot = 0;
+        while (slot < mMatchCodes.length && mMatchCodes[slot] != match) {
+            slot++;
+        }
+
+        int index = slot * OPERATION_NAMES.length + operation;
+        Histogram histogram = mHistograms.get(index);
+        if (histogram == null) {
+            // If two threads race here, one of them wins and the other uses its histogram
+            mHistograms.compareAndSet(index, null, new Histogram());
+            histogram = mHistograms.get(index);
+        }
+        return histogram;
+    }
+
+    /** Request times of one operation on one URI */
+    private static final class Histogram {
+
+        /** Number of bits of the time that pick the bucket within its power of two */
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+        /** Times from this many microseconds up all go in the last bucket (about 71 minutes) */
+        private static final long MAX_MICROS = (1L << 32) - 1;
+
+        private static final int BUCKET_COUNT = bucketOf(MAX_MICROS) + 1;
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long micros, int rowCount) {
+            buckets.incrementAndGet(bucketOf(Math.min(micros, MAX_MICROS)));
+            count.incrementAndGet();
+            rows.addAndGet(rowCount);
+
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        Bundle toBundle() {
+            // Read the buckets once, so the percentiles agree with each other
+            long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+
+            Bundle metrics = new Bundle();
+            metrics.putLong(ManagerContract.KEY_METRIC_COUNT, count.get());
+            metrics.putLong(ManagerContract.KEY_METRIC_ERRORS, errors.get());
+            metrics.putLong(ManagerContract.KEY_METRIC_ROWS, rows.get());
+            metrics.putLong(ManagerContract.KEY_METRIC_P50_MICROS, percentile(counts, total, 50));
+            metrics.putLong(ManagerContract.KEY_METRIC_P90_MICROS, percentile(counts, total, 90));
+            metrics.putLong(ManagerContract.KEY_METRIC_P99_MICROS, percentile(counts, total, 99));
+            metrics.putLong(ManagerContract.KEY_METRIC_MAX_MICROS, maxMicros.get());
+            return metrics;
+        }
+
+        /**
+         * Returns the highest time in the bucket that holds the given percentile of the counts.
+         */
+        private static long percentile(long[] counts, long total, int percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            // Rank of the request at the percentile, counting from 1
+            long rank = Math.max(1, (total * percentile + 99) / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestMicrosOf(i);
+                }
+            }
+            return MAX_MICROS;
+        }
+
+        /**
+         * Returns the bucket of a time. Times under {@link #SUB_BUCKET_COUNT} microseconds get a
+         * bucket each; above that, every power of two is split into {@link #SUB_BUCKET_COUNT}
+         * buckets.
+         */
+        private static int bucketOf(long micros) {
+            if (micros < SUB_BUCKET_COUNT) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int shift = exponent - SUB_BUCKET_BITS;
+            int subBucket = (int) (micros >>> shift) - SUB_BUCKET_COUNT;
+            return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        /** Returns the highest time that goes in the given bucket */
+        private static long highestMicrosOf(int bucket) {
+            if (bucket < SUB_BUCKET_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKET_COUNT - 1;
+            long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+/**
+ * Keeps the results of recent queries, so asking the same question again (after a rotation, or
+ * when coming back to the catalog) is answered without going to the database.
+ *
+ * Every result is stamped with the data generation it was read at (see
+ * {@link ChangeNotifier#generation()}). Any committed write moves the generation on, which makes
+ * every older result stale at once, so writes never have to work out which queries they touched.
+ * Results are held as plain values and every hit gets its own {@link MatrixCursor} over them.
+ */
+class QueryCache {
+
+    /** Approximate number of bytes the cached results may take up together */
+    static final int MAX_BYTES = 512 * 1024;
+
+    /** Results with more rows than this aren't cached, so one big scan can't flush the rest */
+    static final int MAX_ROWS = 500;
+
+    /** Rough cost of every value on top of its contents: the object header and a reference */
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    /** The cached results, by query key */
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Result result) {
+            return result.bytes;
+        }
+    };
+
+    /**
+     * Returns the key of a query: everything that can change its result apart from the data.
+     */
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                      String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        appendPart(key, projection);
+        appendPart(key, selection);
+        appendPart(key, selectionArgs);
+        appendPart(key, sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * Returns a cursor over the cached result of the query with the given key, or null if it
+     * isn't cached or was read before the given data generation.
+     */
+    Cursor get(String key, long generation) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            return null;
+        }
+        if (result.generation != generation) {
+            mResults.remove(key);
+            return null;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(result.columns, result.rows.length);
+        for (Object[] row : result.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Cache the rows of the given cursor as the result of the query with the given key, read at
+     * the given data generation, and return a cursor over them. The given cursor is closed.
+     * If the result is too big to cache, the given cursor is returned as it is instead.
+     */
+    Cursor put(String key, long generation, Cursor cursor) {
+        // Counting runs the query, so this is where a cancelled or failing one throws
+        int count;
+        try {
+            count = cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        if (count > MAX_ROWS) {
+            return cursor;
+        }
+
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        int bytes = 0;
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String value = cursor.getString(column);
+                            row[column] = value;
+                            bytes += 2 * value.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            row[column] = blob;
+                            bytes += blob.length;
+                            break;
+                        default:
+                            row[column] = null;
+                            break;
+                    }
+                    bytes += VALUE_OVERHEAD_BYTES;
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Result result = new Result(columns, rows, generation, bytes);
+        if (bytes <= MAX_BYTES / 4) {
+            mResults.put(key, result);
+        }
+
+        MatrixCursor copy = new MatrixCursor(columns, rows.length);
+        for (Object[] row : rows) {
+            copy.addRow(row);
+        }
+        return copy;
+    }
+
+    /**
+     * Give memory back when the system runs low: half of the cache while the app is in the
+     * background, and all of it once the app is about to be killed or the device is struggling.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mResults.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mResults.trimToSize(MAX_BYTES / 2);
+        }
+    }
+
+    /** Number of queries answered from the cache, including ones that turned out to be stale */
+    int hitCount() {
+        return mResults.hitCount();
+    }
+
+    /** Number of queries that weren't in the cache */
+    int missCount() {
+        return mResults.missCount();
+    }
+
+    /** Approximate number of bytes the cached results take up */
+    int size() {
+        return mResults.size();
+    }
+
+    private static void appendPart(StringBuilder key, String part) {
+        // Separators that can't appear in a URI, so different queries never share a key
+        key.append('\u0000');
+        if (part != null) {
+            key.append('\u0001').append(part);
+        }
+    }
+
+    private static void appendPart(StringBuilder key, String[] parts) {
+        key.append('\u0000');
+        if (parts != null) {
+            for (String part : parts) {
+                appendPart(key, part);
+            }
+            key.append('\u0002');
+        }
+    }
+
+    /** The rows of one query, read at one data generation */
+    private static final class Result {
+        final String[] columns;
+        final Object[][] rows;
+        final long generation;
+        final int bytes;
+
+        Result(String[] columns, Object[][] rows, long generation, int bytes) {
+            this.columns = columns;
+            this.rows = rows;
+            this.generation = generation;
+            this.bytes = bytes;
+        }
+    }
+}
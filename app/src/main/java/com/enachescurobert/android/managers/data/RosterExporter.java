@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the managers of a cursor into a pipe as a CSV or JSON roster, in the same format that
+ * {@link RosterImporter} reads. Rows are written as they are read from the cursor, so an export
+ * of any size only takes a cursor window and a write buffer of memory.
+ */
+class RosterExporter implements ContentProvider.PipeDataWriter<Cursor> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RosterExporter.class.getSimpleName();
+
+    /** Columns of the exported managers, in the order they are written */
+    static final String[] COLUMNS = {
+            ManagerEntry._ID,
+            ManagerEntry.COLUMN_MANAGER_NAME,
+            ManagerEntry.COLUMN_MANAGER_TEAM,
+            ManagerEntry.COLUMN_MANAGER_GENDER,
+            ManagerEntry.COLUMN_MANAGER_TROPHIES };
+
+    /** Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Write every manager in the cursor, which must hold {@link #COLUMNS}, into the pipe as
+     * {@link ManagerContract#MIME_TYPE_JSON} or else as CSV. The cursor is closed at the end.
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Cursor cursor) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+        try {
+            if (ManagerContract.MIME_TYPE_JSON.equals(mimeType)) {
+                writeJson(cursor, writer);
+            } else {
+                writeCsv(cursor, writer);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe before the end of the export
+            Log.w(LOG_TAG, "Export of " + uri + " stopped early", e);
+        } finally {
+            cursor.close();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // The pipe is gone already
+            }
+        }
+    }
+
+    private static void writeCsv(Cursor cursor, Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        while (cursor.moveToNext()) {
+            writer.write(Long.toString(cursor.getLong(0)));
+            writer.write(',');
+            writeCsvField(writer, cursor.getString(1));
+            writer.write(',');
+            writeCsvField(writer, cursor.getString(2));
+            writer.write(',');
+            writer.write(Integer.toString(cursor.getInt(3)));
+            writer.write(',');
+            writer.write(Integer.toString(cursor.getInt(4)));
+            writer.write("\r\n");
+        }
+    }
+
+    /**
+     * Write a CSV field, in quotes if it holds anything that would otherwise end it.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.startsWith("\"");
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJson(Cursor cursor, Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        while (cursor.moveToNext()) {
+            json.beginObject();
+            json.name(COLUMNS[0]).value(cursor.getLong(0));
+            json.name(COLUMNS[1]).value(cursor.getString(1));
+            json.name(COLUMNS[2]);
+            if (cursor.isNull(2)) {
+                json.nullValue();
+            } else {
+                json.value(cursor.getString(2));
+            }
+            json.name(COLUMNS[3]).value(cursor.getInt(3));
+            json.name(COLUMNS[4]).value(cursor.getInt(4));
+            json.endObject();
+        }
+        json.endArray();
+
+        // Flush without closing, the caller closes the writer
+        json.flush();
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a roster of managers from a CSV or JSON file into {@link ManagerProvider}.
+ *
+ * The file is read as a stream, so only a few chunks of {@link #CHUNK_SIZE} managers are in
+ * memory at any time however big it is. Each chunk is checked on a pool of worker threads with
+ * the same {@link ManagerValidator} rules as a single insert, and the valid managers are written
+ * with one {@link ContentResolver#bulkInsert(Uri, ContentValues[])}, which is a single
+ * transaction. Chunks are written in the order of the file.
+ *
+ * A CSV file is only cut into chunks of whole rows by the importing thread, which just looks for
+ * the line breaks outside quotes; the rows are split into fields on the workers. JSON objects can
+ * only be found by tokenizing the whole file, so a JSON file is parsed by the importing thread
+ * and only checked on the workers.
+ *
+ * A CSV file starts with a header row naming its columns: name, team, gender and trophies, in
+ * any order. A JSON file is an array of objects with the same keys. The gender is one of the
+ * {@link ManagerEntry} gender values, or "unknown", "male" or "female".
+ *
+ * {@link #run(ProgressListener)} blocks, so call it off the main thread.
+ */
+public class RosterImporter {
+
+    /** Roster file formats */
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /** Number of managers parsed, checked and written together */
+    static final int CHUNK_SIZE = 2000;
+
+    /** Keys of the manager values in a roster, in the order records hold them */
+    private static final String[] FIELDS = {
+            ManagerEntry.COLUMN_MANAGER_NAME,
+            ManagerEntry.COLUMN_MANAGER_TEAM,
+            ManagerEntry.COLUMN_MANAGER_GENDER,
+            ManagerEntry.COLUMN_MANAGER_TROPHIES };
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_TEAM = 1;
+    private static final int FIELD_GENDER = 2;
+    private static final int FIELD_TROPHIES = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Interface for hearing how far an import has got. Called on the importing thread after
+     * every chunk is written.
+     */
+    public interface ProgressListener {
+        void onProgress(int imported, int rejected);
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+
+        /** Number of managers that were added */
+        public final int imported;
+
+        /** Number of rows that were skipped because they aren't valid managers */
+        public final int rejected;
+
+        /** Whether the import was cancelled before the end of the file */
+        public final boolean cancelled;
+
+        Result(int imported, int rejected, boolean cancelled) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mSource;
+    private final int mFormat;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructs a new {@link RosterImporter}.
+     *
+     * @param resolver to read the file and write the managers through
+     * @param source   URI of the roster file
+     * @param format   {@link #FORMAT_CSV} or {@link #FORMAT_JSON}
+     */
+    public RosterImporter(ContentResolver resolver, Uri source, int format) {
+        if (format != FORMAT_CSV && format != FORMAT_JSON) {
+            throw new IllegalArgumentException("Unknown roster format " + format);
+        }
+        mResolver = resolver;
+        mSource = source;
+        mFormat = format;
+    }
+
+    /**
+     * Returns the format of the roster file at the given URI, going by its MIME type or else
+     * its name. Anything that doesn't look like JSON is read as CSV.
+     */
+    public static int formatOf(ContentResolver resolver, Uri source) {
+        String type = resolver.getType(source);
+        String path = source.getPath();
+        if ((type != null && type.endsWith("json"))
+                || (path != null && path.toLowerCase(Locale.US).endsWith(".json"))) {
+            return FORMAT_JSON;
+        }
+        return FORMAT_CSV;
+    }
+
+    /**
+     * Stop the import as soon as possible. Chunks that were already written stay in the
+     * database. Can be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Import the whole roster, unless it is cancelled first. Throws if the file can't be read
+     * or isn't a valid CSV or JSON roster; the chunks written until then stay in the database.
+     * Failures of the resolver itself, like a revoked permission or a full database, are
+     * thrown as they are.
+     */
+    public Result run(ProgressListener listener) throws IOException {
+        InputStream in = mResolver.openInputStream(mSource);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + mSource);
+        }
+
+        // Leave a core for this thread, which reads the file and writes the chunks
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+
+        // Chunks being checked, oldest first. Waiting for the oldest once there are this many
+        // keeps the memory bounded when the workers are faster than the database.
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        int maxPending = 2 * threads;
+
+        int[] counts = new int[2];
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            ChunkReader chunks = mFormat == FORMAT_JSON
+                    ? new JsonChunkReader(reader) : new CsvChunkReader(reader);
+
+            RecordReader chunk;
+            while (!mCancelled && (chunk = chunks.next()) != null) {
+                pending.add(workers.submit(new ChunkChecker(chunk)));
+                if (pending.size() >= maxPending) {
+                    write(pending.remove(), counts, listener);
+                }
+            }
+            while (!pending.isEmpty() && !mCancelled) {
+                write(pending.remove(), counts, listener);
+            }
+        } finally {
+            workers.shutdownNow();
+            in.close();
+        }
+
+        return new Result(counts[0], counts[1], mCancelled);
+    }
+
+    /**
+     * Wait for a chunk to be checked and write its valid managers.
+     */
+    private void write(Future<Chunk> future, int[] counts, ProgressListener listener)
+            throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            // Treat it as a cancellation, and let the caller know about the interrupt
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+            return;
+        } catch (ExecutionException e) {
+            // The rows of a CSV chunk are only split into fields by the worker
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot check roster rows", e.getCause());
+        }
+        if (mCancelled) {
+            return;
+        }
+
+        if (chunk.values.length > 0) {
+            counts[0] += mResolver.bulkInsert(ManagerEntry.CONTENT_URI, chunk.values);
+        }
+        counts[1] += chunk.rejected;
+        if (listener != null) {
+            listener.onProgress(counts[0], counts[1]);
+        }
+    }
+
+    /**
+     * Returns the manager values for a roster record, or null if they break one of the
+     * {@link ManagerValidator} rules.
+     */
+    static ContentValues toValues(String[] record) {
+        String name = record[FIELD_NAME];
+        int gender = parseGender(record[FIELD_GENDER]);
+
+        // Trophies that aren't a number are invalid, and those that aren't provided are left
+        // to the column default
+        String trophies = record[FIELD_TROPHIES];
+        Integer count = null;
+        if (!TextUtils.isEmpty(trophies)) {
+            try {
+                count = Integer.parseInt(trophies.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (!ManagerValidator.isValid(name, gender, count == null ? 0 : count)) {
+            return null;
+        }
+
+        ContentValues values = new ContentValues(4);
+        values.put(ManagerEntry.COLUMN_MANAGER_NAME, name);
+        values.put(ManagerEntry.COLUMN_MANAGER_GENDER, gender);
+        if (count != null) {
+            values.put(ManagerEntry.COLUMN_MANAGER_TROPHIES, count);
+        }
+        values.put(ManagerEntry.COLUMN_MANAGER_TEAM, record[FIELD_TEAM]);
+        return values;
+    }
+
+    /**
+     * Returns the gender value written in a roster, or -1 if it isn't one.
+     */
+    private static int parseGender(String gender) {
+        if (gender == null) {
+            return -1;
+        }
+        gender = gender.trim();
+        if (gender.equalsIgnoreCase("unknown")) {
+            return ManagerEntry.GENDER_UNKNOWN;
+        } else if (gender.equalsIgnoreCase("male")) {
+            return ManagerEntry.GENDER_MALE;
+        } else if (gender.equalsIgnoreCase("female")) {
+            return ManagerEntry.GENDER_FEMALE;
+        }
+        try {
+            return Integer.parseInt(gender);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the index in {@link #FIELDS} of a CSV column or JSON key, or -1 for anything else,
+     * which is ignored.
+     */
+    private static int fieldIndex(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The valid managers of a chunk, and the number of rows that weren't */
+    private static final class Chunk {
+        final ContentValues[] values;
+        final int rejected;
+
+        Chunk(ContentValues[] values, int rejected) {
+            this.values = values;
+            this.rejected = rejected;
+        }
+    }
+
+    /** Splits the records of a chunk into fields if need be, and checks them, on a worker */
+    private static final class ChunkChecker implements Callable<Chunk> {
+        private final RecordReader mRecords;
+
+        ChunkChecker(RecordReader records) {
+            mRecords = records;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            List<ContentValues> valid = new ArrayList<>(CHUNK_SIZE);
+            int rejected = 0;
+            String[] record;
+            while ((record = mRecords.next()) != null) {
+                ContentValues values = toValues(record);
+                if (values != null) {
+                    valid.add(values);
+                } else {
+                    rejected++;
+                }
+            }
+            return new Chunk(valid.toArray(new ContentValues[valid.size()]), rejected);
+        }
+    }
+
+    /** Reads the records of a roster one at a time, as the values of {@link #FIELDS} */
+    private interface RecordReader {
+
+        /** Returns the next record, or null at the end of the roster */
+        String[] next() throws IOException;
+    }
+
+    /** Cuts a roster into chunks of up to {@link #CHUNK_SIZE} records */
+    private interface ChunkReader {
+
+        /** Returns the records of the next chunk, or null at the end of the roster */
+        RecordReader next() throws IOException;
+    }
+
+    /**
+     * Cuts a CSV roster into chunks of {@link #CHUNK_SIZE} whole rows, without splitting them into
+     * fields: it only follows the quotes well enough to tell the line breaks that end a row from
+     * those inside a quoted field. The header row is read first, to know the columns.
+     */
+    private static final class CsvChunkReader implements ChunkReader {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[8192];
+
+        /** Part of the buffer that hasn't been cut into a chunk yet */
+        private int mStart;
+        private int mEnd;
+
+        /** Where the next character is, as far as quoting goes */
+        private boolean mQuoted;
+        private boolean mFieldStart = true;
+        private boolean mQuoteClosed;
+
+        /** Index in {@link #FIELDS} of every column, or null before the header is read */
+        private int[] mColumns;
+
+        CsvChunkReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public RecordReader next() throws IOException {
+            if (mColumns == null) {
+                String header = nextRows(1);
+                if (header == null) {
+                    return null;
+                }
+                mColumns = CsvRecordReader.columnsOf(header);
+            }
+            String rows = nextRows(CHUNK_SIZE);
+            return rows == null ? null : new CsvRecordReader(rows, mColumns);
+        }
+
+        /**
+         * Returns the text of the given number of rows, or of the rows that are left, or null
+         * if there are none.
+         */
+        private String nextRows(int count) throws IOException {
+            StringBuilder rows = new StringBuilder();
+            while (true) {
+                if (mStart == mEnd) {
+                    int read = mReader.read(mBuffer);
+                    if (read == -1) {
+                        return rows.length() == 0 ? null : rows.toString();
+                    }
+                    mStart = 0;
+                    mEnd = read;
+                }
+                for (int i = mStart; i < mEnd; i++) {
+                    char c = mBuffer[i];
+                    if (mQuoted) {
+                        if (c == '"') {
+                            mQuoted = false;
+                            mQuoteClosed = true;
+                        }
+                        continue;
+                    }
+                    // A quote opens a quoted field at its start, and right after a closing
+                    // quote it is a doubled one. Anywhere else it is just a character.
+                    if (c == '"' && (mFieldStart || mQuoteClosed)) {
+                        mQuoted = true;
+                    } else if (c == '\n' && --count == 0) {
+                        rows.append(mBuffer, mStart, i + 1 - mStart);
+                        mStart = i + 1;
+                        mFieldStart = true;
+                        mQuoteClosed = false;
+                        return rows.toString();
+                    }
+                    mFieldStart = c == ',' || c == '\n';
+                    mQuoteClosed = false;
+                }
+                rows.append(mBuffer, mStart, mEnd - mStart);
+                mStart = mEnd;
+            }
+        }
+    }
+
+    /**
+     * Reads CSV rows: comma separated fields, optionally in double quotes, with quotes inside
+     * them doubled. Quoted fields may span lines.
+     */
+    private static final class CsvRecordReader implements RecordReader {
+        private final String mText;
+        private int mPosition;
+
+        /** Index in {@link #FIELDS} of every column, or -1 for columns that are ignored */
+        private final int[] mColumns;
+
+        private final StringBuilder mField = new StringBuilder();
+        private final List<String> mFields = new ArrayList<>();
+
+        CsvRecordReader(String text, int[] columns) {
+            mText = text;
+            mColumns = columns;
+        }
+
+        /**
+         * Returns the index in {@link #FIELDS} of every column of the given header row.
+         */
+        static int[] columnsOf(String header) throws IOException {
+            List<String> names = new CsvRecordReader(header, null).readRow();
+
+            // Spreadsheets often start UTF-8 files with a byte order mark
+            if (!names.isEmpty() && names.get(0).startsWith("\uFEFF")) {
+                names.set(0, names.get(0).substring(1));
+            }
+            int[] columns = new int[names.size()];
+            boolean hasName = false;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = fieldIndex(names.get(i));
+                hasName |= columns[i] == FIELD_NAME;
+            }
+            if (!hasName) {
+                throw new IOException("Roster has no " + FIELDS[FIELD_NAME] + " column");
+            }
+            return columns;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            List<String> row;
+            do {
+                row = readRow();
+                if (row == null) {
+                    return null;
+                }
+                // Skip blank lines
+            } while (row.size() == 1 && row.get(0).isEmpty());
+
+            String[] record = new String[FIELDS.length];
+            for (int i = 0; i < row.size() && i < mColumns.length; i++) {
+                if (mColumns[i] != -1) {
+                    record[mColumns[i]] = row.get(i);
+                }
+            }
+            return record;
+        }
+
+        /** Returns the next character, or -1 at the end of the text */
+        private int read() {
+            return mPosition < mText.length() ? mText.charAt(mPosition++) : -1;
+        }
+
+        /**
+         * Returns the fields of the next row, or null at the end of the text. The returned list
+         * is reused by the next call.
+         */
+        private List<String> readRow() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Roster ends inside a quoted field");
+                    } else if (c == '"') {
+                        c = read();
+                        if (c == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            continue;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c == '\r') {
+                    c = read();
+                    if (c != '\n' && c != -1) {
+                        throw new IOException("Stray carriage return in roster");
+                    }
+                    break;
+                } else {
+                    mField.append((char) c);
+                }
+                c = read();
+            }
+            mFields.add(mField.toString());
+            return mFields;
+        }
+    }
+
+    /**
+     * Parses a JSON roster a chunk of records at a time, since the objects can't be told apart
+     * without tokenizing the file.
+     */
+    private static final class JsonChunkReader implements ChunkReader {
+        private final JsonRecordReader mRecords;
+
+        JsonChunkReader(Reader reader) {
+            mRecords = new JsonRecordReader(reader);
+        }
+
+        @Override
+        public RecordReader next() throws IOException {
+            final List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+            String[] record;
+            while (chunk.size() < CHUNK_SIZE && (record = mRecords.next()) != null) {
+                chunk.add(record);
+            }
+            if (chunk.isEmpty()) {
+                return null;
+            }
+            return new RecordReader() {
+                private int mNext;
+
+                @Override
+                public String[] next() {
+                    return mNext < chunk.size() ? chunk.get(mNext++) : null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads a JSON roster: an array of objects, whose values may be strings, numbers or null.
+     */
+    private static final class JsonRecordReader implements RecordReader {
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        /** Whether the array has been closed, after which JsonReader would still have a next */
+        private boolean mEnded;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            if (mEnded) {
+                return null;
+            }
+            try {
+                if (!mStarted) {
+                    mReader.beginArray();
+                    mStarted = true;
+                }
+                if (!mReader.hasNext()) {
+                    mReader.endArray();
+                    mEnded = true;
+                    return null;
+                }
+
+                String[] record = new String[FIELDS.length];
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    int field = fieldIndex(mReader.nextName());
+                    if (field == -1 || mReader.peek() == JsonToken.NULL) {
+                        mReader.skipValue();
+                    } else {
+                        // Numbers can be read as strings too
+                        record[field] = mReader.nextString();
+                    }
+                }
+                mReader.endObject();
+                return record;
+            } catch (IllegalStateException e) {
+                // Thrown by JsonReader for well-formed JSON of the wrong shape
+                throw new IOException("Roster is not an array of managers", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Remembers the provider queries that took longer than a threshold, along with the plan SQLite
+ * chose for them, so a missing index or an accidental full scan can be found on a device that
+ * shows the slowness.
+ *
+ * The log is off until a threshold is set. While it's off, queries go straight to the database;
+ * while it's on, each query is run to the end (see {@link Cursor#getCount()}) so its time
+ * includes finding the rows. Only the last {@link #CAPACITY} slow queries are kept.
+ */
+class SlowQueryLog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /** Number of slow queries kept */
+    static final int CAPACITY = 32;
+
+    /** Threshold that turns the log off */
+    static final long OFF = -1;
+
+    /** Queries taking at least this many nanoseconds are kept, or none if it's negative */
+    private volatile long mThresholdNanos = OFF;
+
+    /** The slow queries, oldest first from {@link #mNext}. Guarded by this. */
+    private final Entry[] mEntries = new Entry[CAPACITY];
+
+    /** Slot the next slow query goes in. Guarded by this. */
+    private int mNext;
+
+    /**
+     * Keep the queries that take at least the given number of milliseconds from now on, or
+     * none if it's negative.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        mThresholdNanos = thresholdMillis < 0 ? OFF : thresholdMillis * 1000000;
+    }
+
+    /**
+     * Query the database as {@link SQLiteDatabase#query(String, String[], String, String[],
+     * String, String, String, String)} does, and keep the query if it turns out to be slow. The
+     * query stops with an {@link android.os.OperationCanceledException} if the given signal,
+     * which may be null, is cancelled.
+     */
+    Cursor query(SQLiteDatabase database, String table, String[] projection, String selection,
+                 String[] selectionArgs, String sortOrder, String limit,
+                 CancellationSignal cancellationSignal) {
+        long threshold = mThresholdNanos;
+        if (threshold < 0) {
+            return run(database, table, projection, selection, selectionArgs, sortOrder, limit,
+                    cancellationSignal);
+        }
+
+        long start = System.nanoTime();
+        Cursor cursor = run(database, table, projection, selection, selectionArgs, sortOrder,
+                limit, cancellationSignal);
+        try {
+            int rows = cursor.getCount();
+            long elapsed = System.nanoTime() - start;
+            if (elapsed >= threshold) {
+                String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                        selection, null, null, sortOrder, limit);
+                record(new Entry(System.currentTimeMillis(), sql, selectionArgs, elapsed / 1000,
+                        rows, explain(database, sql, selectionArgs)));
+            }
+        } catch (RuntimeException e) {
+            // Counting runs the query, so a cancelled or failing one throws here
+            cursor.close();
+            throw e;
+        }
+        return cursor;
+    }
+
+    /**
+     * Run a query, with the cancellation signal if there is one. Only Jelly Bean and later can
+     * be given a signal, so older releases never pass one.
+     */
+    private static Cursor run(SQLiteDatabase database, String table, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              String limit, CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return database.query(table, projection, selection, selectionArgs, null, null,
+                    sortOrder, limit);
+        }
+        return database.query(false, table, projection, selection, selectionArgs, null, null,
+                sortOrder, limit, cancellationSignal);
+    }
+
+    /**
+     * Returns the slow queries kept, newest first, as described by
+     * {@link ManagerContract#METHOD_GET_SLOW_QUERIES}.
+     */
+    synchronized ArrayList<Bundle> toBundles() {
+        ArrayList<Bundle> queries = new ArrayList<>();
+        for (int i = 1; i <= CAPACITY; i++) {
+            Entry entry = mEntries[(mNext - i + CAPACITY) % CAPACITY];
+            if (entry == null) {
+                break;
+            }
+            queries.add(entry.toBundle());
+        }
+        return queries;
+    }
+
+    private synchronized void record(Entry entry) {
+        mEntries[mNext] = entry;
+        mNext = (mNext + 1) % CAPACITY;
+        Log.w(LOG_TAG, "Slow query (" + entry.micros + " us, " + entry.rows + " rows): "
+                + entry.sql + " " + Arrays.toString(entry.args) + "\n" + entry.plan);
+    }
+
+    /**
+     * Returns the plan SQLite chooses for the given query, one step per line, such as
+     * "SCAN managers" for a full scan of the managers table.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumn = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    /** One slow query */
+    private static final class Entry {
+        final long time;
+        final String sql;
+        final String[] args;
+        final long micros;
+        final int rows;
+        final String plan;
+
+        Entry(long time, String sql, String[] args, long micros, int rows, String plan) {
+            this.time = time;
+            this.sql = sql;
+            this.args = args;
+            this.micros = micros;
+            this.rows = rows;
+            this.plan = plan;
+        }
+
+        Bundle toBundle() {
+            Bundle query = new Bundle();
+            query.putLong(ManagerContract.KEY_SLOW_QUERY_TIME, time);
+            query.putString(ManagerContract.KEY_SLOW_QUERY_SQL, sql);
+            query.putStringArray(ManagerContract.KEY_SLOW_QUERY_ARGS, args);
+            query.putLong(ManagerContract.KEY_SLOW_QUERY_MICROS, micros);
+            query.putInt(ManagerContract.KEY_SLOW_QUERY_ROWS, rows);
+            query.putString(ManagerContract.KEY_SLOW_QUERY_PLAN, plan);
+            return query;
+        }
+    }
+}
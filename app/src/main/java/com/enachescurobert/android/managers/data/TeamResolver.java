@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns team names into the _id of their row in the teams table, adding teams that don't exist
+ * yet. Meant to be used inside a single transaction and then closed: the statements are
+ * compiled once, and every name looked up is remembered, so a bulk load that repeats the same
+ * few teams only goes to the database once per team.
+ */
+class TeamResolver {
+
+    /** Returned for managers without a team */
+    static final long NO_TEAM = Manager.NO_TEAM;
+
+    private final SQLiteDatabase mDatabase;
+
+    /** Compiled the first time a team has to be looked up in the database */
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mFindStatement;
+
+    /** _ids of the team names looked up so far */
+    private final Map<String, Long> mTeamIds = new HashMap<>();
+
+    /** Whether any team was added to the teams table */
+    private boolean mTeamsAdded;
+
+    TeamResolver(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Returns the _id of the team with the given name, adding the team if there isn't one yet.
+     * Spaces around the name are ignored. Returns {@link #NO_TEAM} if the name is null or blank.
+     */
+    long resolve(String team) {
+        if (team == null) {
+            return NO_TEAM;
+        }
+        String name = team.trim();
+        if (name.isEmpty()) {
+            return NO_TEAM;
+        }
+
+        Long cached = mTeamIds.get(name);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (mInsertStatement == null) {
+            mInsertStatement = mDatabase.compileStatement(ManagerSql.SQL_INSERT_TEAM);
+            mFindStatement = mDatabase.compileStatement(ManagerSql.SQL_FIND_TEAM);
+        }
+
+        // The insert is ignored if the team already exists, in which case look it up instead
+        mInsertStatement.bindString(1, name);
+        long id = mInsertStatement.executeInsert();
+        if (id != -1) {
+            mTeamsAdded = true;
+        } else {
+            mFindStatement.bindString(1, name);
+            id = mFindStatement.simpleQueryForLong();
+        }
+
+        mTeamIds.put(name, id);
+        return id;
+    }
+
+    /**
+     * Returns true if {@link #resolve(String)} added any team to the teams table.
+     */
+    boolean teamsAdded() {
+        return mTeamsAdded;
+    }
+
+    /**
+     * Release the compiled statements.
+     */
+    void close() {
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+            mFindStatement.close();
+        }
+    }
+}
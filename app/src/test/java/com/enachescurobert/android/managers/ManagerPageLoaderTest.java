@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.enachescurobert.android.managers.data.ManagerContract;
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that cancelling a {@link ManagerPageLoader} stops the query it is running.
+ *
+ * Runs as KitKat, as {@link com.enachescurobert.android.managers.data.ManagerProviderTest} does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 19)
+public class ManagerPageLoaderTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private BlockingProvider mProvider;
+    private ManagerPageLoader mLoader;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BlockingProvider.class,
+                ManagerContract.CONTENT_AUTHORITY);
+        for (int i = 0; i < 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ManagerEntry.COLUMN_MANAGER_NAME, "Manager " + i);
+            values.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_UNKNOWN);
+            mProvider.insert(ManagerEntry.CONTENT_URI, values);
+        }
+        mLoader = new ManagerPageLoader(RuntimeEnvironment.application, ManagerEntry.CONTENT_URI,
+                ManagerEntry.SORT_NAME, 50);
+    }
+
+    @Test
+    public void loadInBackground_returnsFirstPage() {
+        ManagerPageLoader.Pages pages = mLoader.loadInBackground();
+
+        assertEquals(3, pages.items.size());
+        assertFalse(pages.hasMore);
+    }
+
+    @Test
+    public void cancelLoadInBackground_duringQuery_stopsLoadWithoutResult() throws Exception {
+        mProvider.block();
+        BackgroundLoad load = new BackgroundLoad(mLoader);
+        load.start();
+        assertTrue("Load never reached the provider",
+                mProvider.mQueryStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        mLoader.cancelLoadInBackground();
+        load.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertFalse("Load still running after it was cancelled", load.isAlive());
+        assertNull(load.mResult);
+        assertTrue("Load ended with " + load.mError,
+                load.mError instanceof OperationCanceledException);
+
+        // The next load isn't held up by the one that was cancelled
+        mProvider.unblock();
+        assertEquals(3, mLoader.loadInBackground().items.size());
+    }
+
+    /** Runs a load of the loader on a thread of its own, as AsyncTaskLoader does */
+    private static final class BackgroundLoad extends Thread {
+        private final ManagerPageLoader mLoader;
+        volatile ManagerPageLoader.Pages mResult;
+        volatile Throwable mError;
+
+        BackgroundLoad(ManagerPageLoader loader) {
+            mLoader = loader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mResult = mLoader.loadInBackground();
+            } catch (Throwable e) {
+                mError = e;
+            }
+        }
+    }
+
+    /**
+     * Provider whose queries, once blocked, wait for their signal to be cancelled before they
+     * run, so a test can cancel a load while its query is in flight.
+     */
+    public static class BlockingProvider extends ManagerProvider {
+        final CountDownLatch mQueryStarted = new CountDownLatch(1);
+        private volatile boolean mBlocked;
+
+        void block() {
+            mBlocked = true;
+        }
+
+        void unblock() {
+            mBlocked = false;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
+            if (mBlocked && cancellationSignal != null) {
+                final CountDownLatch cancelled = new CountDownLatch(1);
+                cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        cancelled.countDown();
+                    }
+                });
+                mQueryStarted.countDown();
+                try {
+                    cancelled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.query(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        }
+    }
+}
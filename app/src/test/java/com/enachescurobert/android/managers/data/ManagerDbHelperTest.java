@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ChangeEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.StatsEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.TeamEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of upgrading the managers database from each of its older versions to the current one.
+ * Every test starts from a database of the old version with managers written in that version's
+ * shape, opens it with {@link ManagerDbHelper} so that it is upgraded, and checks one part of the
+ * result.
+ *
+ * Runs as KitKat, as {@link ManagerProviderTest} does.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 19)
+public class ManagerDbHelperTest {
+
+    /** Version from which managers reference their team by _id instead of naming it */
+    private static final int TEAMS_VERSION = 4;
+
+    /** Version from which changes to the managers are logged */
+    private static final int CHANGES_VERSION = 7;
+
+    /** Version from which deleted managers keep a tombstone until they are purged */
+    private static final int TOMBSTONES_VERSION = 8;
+
+    /** Managers written before the upgrade, which have to be there after it */
+    private static final Row[] ROWS = {
+            new Row("Mircea Lucescu", "Shakhtar Donețk", ManagerEntry.GENDER_MALE, 33),
+            new Row("Ștefan Kovács", "Ajax", ManagerEntry.GENDER_MALE, 14),
+            new Row("Anghel Iordănescu", "Steaua", ManagerEntry.GENDER_MALE, 12),
+            new Row("Emerich Jenei", "Steaua", ManagerEntry.GENDER_MALE, 9),
+            new Row("Laura Georges", null, ManagerEntry.GENDER_FEMALE, 0) };
+
+    /** Manager removed from the table before the upgrade */
+    private static final Row PURGED = new Row("Purged Manager", "Ajax",
+            ManagerEntry.GENDER_UNKNOWN, 7);
+
+    /** Manager deleted but not purged yet, on the versions with tombstones */
+    private static final Row TOMBSTONED = new Row("Tombstoned Manager", "Ajax",
+            ManagerEntry.GENDER_MALE, 5);
+    private static final long TOMBSTONE_TIME = 1234;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "from version {0}")
+    public static List<Object[]> versions() {
+        List<Object[]> versions = new ArrayList<>();
+        for (int version = 1; version < ManagerDbHelper.DATABASE_VERSION; version++) {
+            versions.add(new Object[] { version });
+        }
+        return versions;
+    }
+
+    /** Version the database is upgraded from */
+    private final int mVersion;
+
+    /** _ids of {@link #ROWS}, in the same order */
+    private final long[] mIds = new long[ROWS.length];
+
+    /** _id of {@link #TOMBSTONED}, or 0 on versions without tombstones */
+    private long mTombstonedId;
+
+    /** Sequence number of the change that removed {@link #PURGED}, or 0 if it wasn't logged */
+    private long mPurgedSequence;
+
+    private ManagerDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    public ManagerDbHelperTest(int version) {
+        mVersion = version;
+    }
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        mDbHelper = new ManagerDbHelper(context);
+        File file = context.getDatabasePath(mDbHelper.getDatabaseName());
+        file.getParentFile().mkdirs();
+
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            ManagerDbHelper.createSchema(old, mVersion);
+            for (int i = 0; i < ROWS.length; i++) {
+                mIds[i] = insert(old, ROWS[i]);
+            }
+            if (mVersion >= TOMBSTONES_VERSION) {
+                // Deleted the way the provider deletes, so the change log records it
+                mTombstonedId = insert(old, TOMBSTONED);
+                ContentValues tombstone = new ContentValues();
+                tombstone.put(ManagerEntry.COLUMN_MANAGER_DELETED, TOMBSTONE_TIME);
+                old.update(ManagerEntry.TABLE_NAME, tombstone, ManagerEntry._ID + "=?",
+                        new String[] { String.valueOf(mTombstonedId) });
+            }
+
+            long purgedId = insert(old, PURGED);
+            old.delete(ManagerEntry.TABLE_NAME, ManagerEntry._ID + "=?",
+                    new String[] { String.valueOf(purgedId) });
+            if (mVersion >= CHANGES_VERSION) {
+                mPurgedSequence = DatabaseUtils.longForQuery(old, "SELECT "
+                        + ChangeEntry.COLUMN_SEQUENCE + " FROM " + ChangeEntry.TABLE_NAME
+                        + " WHERE " + ChangeEntry.COLUMN_MANAGER_ID + "=" + purgedId, null);
+            }
+            old.setVersion(mVersion);
+        } finally {
+            old.close();
+        }
+
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void upgrade_matchesFreshSchema() {
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        try {
+            ManagerDbHelper.createSchema(fresh, ManagerDbHelper.DATABASE_VERSION);
+            assertEquals(schemaOf(fresh), schemaOf(mDatabase));
+        } finally {
+            fresh.close();
+        }
+        assertEquals(ManagerDbHelper.DATABASE_VERSION, mDatabase.getVersion());
+        assertEquals("ok", DatabaseUtils.stringForQuery(mDatabase, "PRAGMA integrity_check",
+                null));
+    }
+
+    @Test
+    public void upgrade_keepsManagers() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ROWS.length; i++) {
+            expected.add(mIds[i] + " " + ROWS[i]);
+        }
+
+        List<String> actual = new ArrayList<>();
+        Cursor cursor = mDatabase.query(ManagerDbHelper.DETAILS_VIEW_NAME, Manager.COLUMNS, null,
+                null, null, null, ManagerEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                Manager manager = Manager.fromCursor(cursor);
+                actual.add(manager.id + " " + new Row(manager.name, manager.team, manager.gender,
+                        manager.trophies));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(expected, actual);
+
+        if (mVersion >= TOMBSTONES_VERSION) {
+            assertEquals(TOMBSTONE_TIME, DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                    + ManagerEntry.COLUMN_MANAGER_DELETED + " FROM " + ManagerEntry.TABLE_NAME
+                    + " WHERE " + ManagerEntry._ID + "=" + mTombstonedId, null));
+
+            // The delete from before is purged as if it committed when it started
+            assertEquals(TOMBSTONE_TIME, DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                    + ManagerDbHelper.COLUMN_DELETE_COMMITTED + " FROM "
+                    + ManagerDbHelper.DELETES_TABLE_NAME + " WHERE "
+                    + ManagerEntry.COLUMN_MANAGER_DELETED + "=" + TOMBSTONE_TIME, null));
+        }
+        assertEquals(mVersion >= TOMBSTONES_VERSION ? 1 : 0,
+                DatabaseUtils.queryNumEntries(mDatabase, ManagerDbHelper.DELETES_TABLE_NAME));
+    }
+
+    @Test
+    public void upgrade_keepsStats() {
+        Map<String, String> teams = new TreeMap<>();
+        Map<String, String> genders = new TreeMap<>();
+        for (Row row : ROWS) {
+            if (row.team != null) {
+                teams.put(row.team, statsOf(row.team, null));
+            }
+            genders.put(String.valueOf(row.gender), statsOf(null, row.gender));
+        }
+
+        assertEquals(teams, readStats(StatsEntry.COLUMN_TEAM,
+                ManagerDbHelper.TEAM_STATS_VIEW_NAME));
+        assertEquals(genders, readStats(StatsEntry.COLUMN_GENDER, StatsEntry.GENDERS_TABLE_NAME));
+    }
+
+    @Test
+    public void upgrade_logsEveryManager() {
+        Map<Long, Integer> expected = new TreeMap<>();
+        for (long id : mIds) {
+            expected.put(id, ChangeEntry.KIND_INSERT);
+        }
+        if (mVersion >= TOMBSTONES_VERSION) {
+            expected.put(mTombstonedId, ChangeEntry.KIND_DELETE);
+        }
+
+        Map<Long, Integer> actual = new TreeMap<>();
+        Cursor cursor = mDatabase.query(ChangeEntry.TABLE_NAME, new String[] {
+                ChangeEntry.COLUMN_MANAGER_ID, ChangeEntry.COLUMN_KIND }, null, null, null, null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                actual.put(cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(expected, actual);
+
+        // The change of the manager removed before the upgrade is gone, and the floor says so
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase,
+                ManagerDbHelper.CHANGES_FLOOR_TABLE_NAME));
+        assertEquals(mPurgedSequence, DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                + ChangeEntry.COLUMN_SEQUENCE + " FROM "
+                + ManagerDbHelper.CHANGES_FLOOR_TABLE_NAME, null));
+        if (mVersion >= CHANGES_VERSION) {
+            assertTrue(mPurgedSequence > 0);
+        }
+    }
+
+    @Test
+    public void upgrade_searchFindsManagers() {
+        for (int i = 0; i < ROWS.length; i++) {
+            Row row = ROWS[i];
+            assertTrue(row.name, search(ManagerEntry.COLUMN_MANAGER_NAME, lastWordOf(row.name))
+                    .contains(mIds[i]));
+            if (row.team != null) {
+                assertTrue(row.team, search(ManagerEntry.COLUMN_MANAGER_TEAM,
+                        lastWordOf(row.team)).contains(mIds[i]));
+            }
+        }
+        assertFalse(search(ManagerEntry.COLUMN_MANAGER_NAME, "purged").iterator().hasNext());
+    }
+
+    /**
+     * Add a manager in the shape of the version being upgraded from. Returns its _id.
+     */
+    private long insert(SQLiteDatabase db, Row row) {
+        ContentValues values = new ContentValues();
+        values.put(ManagerEntry.COLUMN_MANAGER_NAME, row.name);
+        values.put(ManagerEntry.COLUMN_MANAGER_GENDER, row.gender);
+        values.put(ManagerEntry.COLUMN_MANAGER_TROPHIES, row.trophies);
+        if (mVersion < TEAMS_VERSION) {
+            values.put(ManagerEntry.COLUMN_MANAGER_TEAM, row.team);
+        } else if (row.team != null) {
+            ContentValues team = new ContentValues();
+            team.put(TeamEntry.COLUMN_TEAM_NAME, row.team);
+            db.insertWithOnConflict(TeamEntry.TABLE_NAME, null, team,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            values.put(ManagerEntry.COLUMN_MANAGER_TEAM_ID, DatabaseUtils.longForQuery(db,
+                    "SELECT " + TeamEntry._ID + " FROM " + TeamEntry.TABLE_NAME + " WHERE "
+                            + TeamEntry.COLUMN_TEAM_NAME + "=?", new String[] { row.team }));
+        }
+        return db.insertOrThrow(ManagerEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Returns every entry of sqlite_master but Android's own table, sorted.
+     */
+    private static List<String> schemaOf(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master"
+                + " WHERE name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " ON "
+                        + cursor.getString(2) + ": " + cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+
+    /**
+     * Returns the stats of the live managers in the given team, or with the given gender, as
+     * {@link #readStats} reads them.
+     */
+    private static String statsOf(String team, Integer gender) {
+        int count = 0;
+        int total = 0;
+        int max = 0;
+        for (Row row : ROWS) {
+            if (team != null ? team.equals(row.team) : gender == row.gender) {
+                count++;
+                total += row.trophies;
+                max = Math.max(max, row.trophies);
+            }
+        }
+        return count + " " + total + " " + max;
+    }
+
+    /**
+     * Returns the count, trophy total and most trophies of each group of a stats table or view,
+     * by the group column.
+     */
+    private Map<String, String> readStats(String groupColumn, String table) {
+        Map<String, String> stats = new TreeMap<>();
+        Cursor cursor = mDatabase.query(table, new String[] { groupColumn,
+                StatsEntry.COLUMN_MANAGER_COUNT, StatsEntry.COLUMN_TROPHY_TOTAL,
+                StatsEntry.COLUMN_MAX_TROPHIES }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                stats.put(cursor.getString(0), cursor.getInt(1) + " " + cursor.getInt(2) + " "
+                        + cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the docids the search index finds for a word in the given column.
+     */
+    private List<Long> search(String column, String word) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("SELECT docid FROM " + ManagerDbHelper.SEARCH_TABLE_NAME
+                + " WHERE " + ManagerDbHelper.SEARCH_TABLE_NAME + " MATCH ?",
+                new String[] { column + ":" + ManagerDbHelper.foldForSearch(word) });
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static String lastWordOf(String text) {
+        return text.substring(text.lastIndexOf(' ') + 1);
+    }
+
+    /** The values of a manager */
+    private static final class Row {
+        final String name;
+        final String team;
+        final int gender;
+        final int trophies;
+
+        Row(String name, String team, int gender, int trophies) {
+            this.name = name;
+            this.team = team;
+            this.gender = gender;
+            this.trophies = trophies;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + team + ") " + gender + " " + trophies;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of how {@link ManagerProvider} queries answer a {@link CancellationSignal}, of the rows
+ * its bulk insert accepts, of the query cache inside batches, and of undoing and purging
+ * deletes.
+ *
+ * The SQLite that Robolectric runs is older than the partial indexes the provider creates on
+ * Lollipop and later, so these run as KitKat, the last release without them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 19)
+public class ManagerProviderTest {
+
+    private ManagerProvider mProvider;
+
+    /** _id of the manager every test starts with */
+    private long mManagerId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ManagerProvider.class,
+                ManagerContract.CONTENT_AUTHORITY);
+        ContentValues values = new ContentValues();
+        values.put(ManagerEntry.COLUMN_MANAGER_NAME, "Mircea Lucescu");
+        values.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_MALE);
+        values.put(ManagerEntry.COLUMN_MANAGER_TROPHIES, 33);
+        mManagerId = ContentUris.parseId(mProvider.insert(ManagerEntry.CONTENT_URI, values));
+    }
+
+    @Test
+    public void query_withCancelledSignal_throwsOperationCanceled() {
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            mProvider.query(ManagerEntry.CONTENT_URI, null, null, null, null, signal);
+            fail("Query with a cancelled signal returned");
+        } catch (OperationCanceledException expected) {
+        }
+    }
+
+    @Test
+    public void pageQuery_withCancelledSignal_throwsOperationCanceled() {
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            mProvider.query(ManagerEntry.buildPageUri(ManagerEntry.CONTENT_URI,
+                    ManagerEntry.SORT_NAME, 50, null, 0), null, null, null, null, signal);
+            fail("Page query with a cancelled signal returned");
+        } catch (OperationCanceledException expected) {
+        }
+    }
+
+    @Test
+    public void query_withSignal_returnsRows() {
+        Cursor cursor = mProvider.query(ManagerEntry.CONTENT_URI, null, null, null, null,
+                new CancellationSignal());
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void applyBatch_withAssertQuery_seesItsOwnWrites() throws Exception {
+        // Cached before the batch
+        assertEquals(1, queryCount());
+
+        ContentValues added = new ContentValues();
+        added.put(ManagerEntry.COLUMN_MANAGER_NAME, "Gheorghe Hagi");
+        added.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_MALE);
+        ContentValues nameless = new ContentValues();
+        nameless.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_MALE);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ManagerEntry.CONTENT_URI)
+                .withValues(added).build());
+        operations.add(ContentProviderOperation.newAssertQuery(ManagerEntry.CONTENT_URI)
+                .withExpectedCount(2).build());
+        operations.add(ContentProviderOperation.newInsert(ManagerEntry.CONTENT_URI)
+                .withValues(nameless).build());
+
+        // Only gets to the nameless manager if the assert was answered from the database
+        try {
+            mProvider.applyBatch(operations);
+            fail("Batch with a nameless manager was applied");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(1, queryCount());
+    }
+
+    @Test
+    public void undoDelete_restoresOnlyThatDelete() {
+        ContentValues values = new ContentValues();
+        values.put(ManagerEntry.COLUMN_MANAGER_NAME, "Gheorghe Hagi");
+        values.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_MALE);
+        mProvider.insert(ManagerEntry.CONTENT_URI, values);
+
+        long first = deleteManagers(ManagerEntry.COLUMN_MANAGER_NAME + "='Mircea Lucescu'", 1);
+        deleteManagers(null, 1);
+
+        assertEquals(1, undoDelete(first));
+        assertEquals(1, queryCount());
+        assertEquals(0, undoDelete(first));
+    }
+
+    @Test
+    public void undoDelete_windowCountsFromCommit() {
+        long token = deleteManagers(null, 1);
+
+        // The delete started long ago, but only just committed
+        long age = 10 * ManagerContract.UNDO_WINDOW_MILLIS;
+        backdate(ManagerEntry.COLUMN_MANAGER_DELETED, age);
+        assertEquals(1, undoDelete(token - age));
+        assertEquals(1, queryCount());
+    }
+
+    @Test
+    public void undoDelete_afterWindow_restoresNothing() {
+        long token = deleteManagers(null, 1);
+
+        backdate(ManagerDbHelper.COLUMN_DELETE_COMMITTED, ManagerContract.UNDO_WINDOW_MILLIS + 1);
+        assertEquals(0, undoDelete(token));
+        assertEquals(0, queryCount());
+    }
+
+    @Test
+    public void repositoryDelete_isPurgedAfterDelay() {
+        ManagerData data = ManagerData.get(RuntimeEnvironment.application);
+        assertTrue(data.repository.delete(mManagerId));
+
+        data.purger.purge();
+        assertEquals(1, countRows(data, ManagerEntry.TABLE_NAME));
+
+        backdate(ManagerDbHelper.COLUMN_DELETE_COMMITTED, ManagerPurger.PURGE_DELAY_MILLIS);
+        data.purger.purge();
+        assertEquals(0, countRows(data, ManagerEntry.TABLE_NAME));
+        assertEquals(0, countRows(data, ManagerDbHelper.DELETES_TABLE_NAME));
+    }
+
+    @Test
+    public void bulkInsert_withColumnInsertRejects_insertsNothing() {
+        ContentValues valid = new ContentValues();
+        valid.put(ManagerEntry.COLUMN_MANAGER_NAME, "Gheorghe Hagi");
+        valid.put(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerEntry.GENDER_MALE);
+        ContentValues deleted = new ContentValues(valid);
+        deleted.put(ManagerEntry.COLUMN_MANAGER_NAME, "Cosmin Olaroiu");
+        deleted.put(ManagerEntry.COLUMN_MANAGER_DELETED, 1L);
+        try {
+            mProvider.bulkInsert(ManagerEntry.CONTENT_URI, new ContentValues[] { valid, deleted });
+            fail("Bulk insert accepted a deletion time");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(1, queryCount());
+    }
+
+    /**
+     * Delete the managers matching the selection through the provider method, and check how
+     * many went. Returns the token of the delete.
+     */
+    private long deleteManagers(String selection, int expected) {
+        Bundle result = mProvider.call(ManagerContract.METHOD_DELETE_MANAGERS, selection, null);
+        assertEquals(expected, result.getInt(ManagerContract.KEY_DELETED));
+        return result.getLong(ManagerContract.KEY_DELETE_TOKEN);
+    }
+
+    /** Returns the number of managers the undo of the given delete brought back */
+    private int undoDelete(long token) {
+        return mProvider.call(ManagerContract.METHOD_UNDO_DELETE, String.valueOf(token), null)
+                .getInt(ManagerContract.KEY_RESTORED);
+    }
+
+    /**
+     * Move the given time of every delete, its tombstone or its commit time, the given number of
+     * milliseconds back
+     */
+    private static void backdate(String column, long millis) {
+        ManagerDbHelper dbHelper = new ManagerDbHelper(RuntimeEnvironment.application);
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            database.execSQL("UPDATE " + ManagerDbHelper.DELETES_TABLE_NAME + " SET " + column
+                    + " = " + column + " - " + millis);
+            if (column.equals(ManagerEntry.COLUMN_MANAGER_DELETED)) {
+                database.execSQL("UPDATE " + ManagerEntry.TABLE_NAME + " SET " + column + " = "
+                        + column + " - " + millis + " WHERE " + column + " IS NOT NULL");
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /** Returns the number of rows in a table, deleted managers included */
+    private static long countRows(ManagerData data, String table) {
+        return DatabaseUtils.queryNumEntries(data.dbHelper.getReadableDatabase(), table);
+    }
+
+    private int queryCount() {
+        Cursor cursor = mProvider.query(ManagerEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
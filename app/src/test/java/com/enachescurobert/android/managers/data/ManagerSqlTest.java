@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+import com.enachescurobert.android.managers.data.ManagerContract.TeamEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link ManagerSql}, which the benchmark module shares with the provider, matches the
+ * rest of the data layer, and that the benchmark's copy of the schema matches the database
+ * {@link ManagerDbHelper} creates.
+ *
+ * Runs as KitKat, as {@link ManagerProviderTest} does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 19)
+public class ManagerSqlTest {
+
+    /** The benchmark's schema, relative to the app module the tests run in */
+    private static final String BENCHMARK_SCHEMA = "../benchmark/src/jmh/resources/schema.sql";
+
+    /** What makes an index partial, which the database only has on Lollipop and later */
+    private static final String[] PARTIAL_INDEX_CLAUSES = {
+            " WHERE " + ManagerDbHelper.NOT_DELETED,
+            " WHERE " + ManagerEntry.COLUMN_MANAGER_DELETED + " IS NOT NULL" };
+
+    private ManagerDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new ManagerDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void names_matchContract() {
+        assertEquals(ManagerEntry.TABLE_NAME, ManagerSql.MANAGERS);
+        assertEquals(TeamEntry.TABLE_NAME, ManagerSql.TEAMS);
+        assertEquals(ManagerDbHelper.DETAILS_VIEW_NAME, ManagerSql.DETAILS_VIEW);
+        assertEquals(ManagerDbHelper.DELETES_TABLE_NAME, ManagerSql.DELETES);
+        assertEquals(ManagerDbHelper.COLUMN_DELETE_COMMITTED, ManagerSql.COMMITTED);
+        assertEquals(ManagerEntry._ID, ManagerSql.ID);
+        assertEquals(TeamEntry._ID, ManagerSql.ID);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_NAME, ManagerSql.NAME);
+        assertEquals(TeamEntry.COLUMN_TEAM_NAME, ManagerSql.NAME);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_TEAM, ManagerSql.TEAM);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_TEAM_ID, ManagerSql.TEAM_ID);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_GENDER, ManagerSql.GENDER);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_TROPHIES, ManagerSql.TROPHIES);
+        assertEquals(ManagerEntry.COLUMN_MANAGER_DELETED, ManagerSql.DELETED);
+        assertEquals(ManagerEntry.COLUMN_PAGE_KEY, ManagerSql.PAGE_KEY);
+    }
+
+    @Test
+    public void select_matchesQueryBuilder() {
+        String[] columns = ManagerSql.withPageKey(ManagerSql.PAGE_COLUMNS,
+                ManagerSql.SORT_BY_NAME.column);
+        assertSelect(ManagerSql.DETAILS_VIEW, columns, null, ManagerSql.SORT_BY_NAME.orderBy(),
+                "50");
+        assertSelect(ManagerSql.DETAILS_VIEW, columns, ManagerSql.SORT_BY_TROPHIES.after(),
+                ManagerSql.SORT_BY_TROPHIES.orderBy(), "50");
+        assertSelect(ManagerSql.MANAGERS, new String[] { ManagerSql.ID },
+                ManagerSql.ID_SELECTION, ManagerSql.ID, null);
+        assertSelect(ManagerSql.MANAGERS, null, null, null, null);
+    }
+
+    @Test
+    public void and_matchesConcatenateWhere() {
+        String[][] cases = {
+                { null, ManagerSql.NOT_DELETED },
+                { "", ManagerSql.NOT_DELETED },
+                { ManagerSql.ID_SELECTION, null },
+                { ManagerSql.ID_SELECTION, ManagerSql.NOT_DELETED } };
+        for (String[] selections : cases) {
+            assertEquals(DatabaseUtils.concatenateWhere(selections[0], selections[1]),
+                    ManagerSql.and(selections[0], selections[1]));
+        }
+    }
+
+    @Test
+    public void statements_compileAgainstDatabase() {
+        String live = ManagerSql.and(ManagerSql.ID_SELECTION, ManagerSql.NOT_DELETED);
+        String[] statements = {
+                ManagerSql.SQL_INSERT_MANAGER,
+                ManagerSql.SQL_INSERT_TEAM,
+                ManagerSql.SQL_FIND_TEAM,
+                ManagerSql.SQL_RECORD_DELETE,
+                ManagerSql.SQL_MAX_MANAGER_ID,
+                ManagerSql.update(ManagerSql.MANAGERS, new String[] { ManagerSql.TROPHIES }, live),
+                ManagerSql.update(ManagerSql.MANAGERS, new String[] { ManagerSql.DELETED },
+                        ManagerSql.and(live, ManagerSql.ID_RANGE_SELECTION)),
+                ManagerSql.select(ManagerSql.DETAILS_VIEW, ManagerSql.DETAILS_COLUMNS,
+                        ManagerSql.ID_SELECTION, null, null) };
+        for (String sql : statements) {
+            mDatabase.compileStatement(sql).close();
+        }
+
+        ManagerSql.PageSort[] sorts = {
+                ManagerSql.SORT_BY_NAME, ManagerSql.SORT_BY_TEAM, ManagerSql.SORT_BY_TROPHIES,
+                ManagerSql.SORT_BY_RECENT };
+        for (ManagerSql.PageSort sort : sorts) {
+            Cursor cursor = mDatabase.rawQuery(ManagerSql.select(ManagerSql.DETAILS_VIEW,
+                    ManagerSql.withPageKey(ManagerSql.PAGE_COLUMNS, sort.column), sort.after(),
+                    sort.orderBy(), "50"), new String[] { "a", "a", "0" });
+            try {
+                assertEquals(ManagerSql.PAGE_COLUMNS.length,
+                        cursor.getColumnIndexOrThrow(ManagerSql.PAGE_KEY));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkSchema_matchesFreshDatabase() throws IOException {
+        File file = new File(BENCHMARK_SCHEMA);
+        assertTrue("Missing " + file.getAbsolutePath(), file.isFile());
+
+        // The statements of the file are separated by blank lines, after a comment
+        List<String> expected = new ArrayList<>();
+        for (String statement : read(file).split(";\n\n")) {
+            statement = statement.replaceAll("(?m)^--.*\n", "").trim();
+            if (statement.endsWith(";")) {
+                statement = statement.substring(0, statement.length() - 1);
+            }
+            if (statement.startsWith("CREATE INDEX")) {
+                for (String clause : PARTIAL_INDEX_CLAUSES) {
+                    statement = statement.replace(clause, "");
+                }
+            }
+            if (!statement.isEmpty()) {
+                expected.add(statement);
+            }
+        }
+
+        // Everything but the tables of SQLite and Android and those behind the full-text index
+        List<String> actual = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                + " AND NOT (type = 'table' AND name LIKE '" + ManagerDbHelper.SEARCH_TABLE_NAME
+                + "_%') ORDER BY rowid", null);
+        try {
+            while (cursor.moveToNext()) {
+                actual.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals("The benchmark schema is out of date; regenerate " + BENCHMARK_SCHEMA,
+                expected, actual);
+    }
+
+    private static void assertSelect(String table, String[] columns, String selection,
+                                     String orderBy, String limit) {
+        assertEquals(SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, null,
+                null, orderBy, limit), ManagerSql.select(table, columns, selection, orderBy, limit));
+    }
+
+    private static String read(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteFullException;
+import android.net.Uri;
+
+import com.enachescurobert.android.managers.data.ManagerContract.ManagerEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests of importing CSV and JSON rosters through {@link ManagerProvider}, in the shape
+ * {@link RosterExporter} writes them.
+ *
+ * Runs as KitKat, as {@link ManagerProviderTest} does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 19)
+public class RosterImporterTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ManagerProvider.class, ManagerContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void run_csvRoster_addsValidManagers() throws IOException {
+        Uri roster = write("roster.csv", "_id,name,team,gender,trophies\r\n"
+                + "1,Mircea Lucescu,\"Shakhtar Donețk, Ukraine\",1,33\r\n"
+                + "2,\"Anghel \"\"Puiu\"\" Iordănescu\",Steaua,male,12\r\n"
+                + "3,Laura Georges,,female,\r\n"
+                + "4,,Ajax,1,14\r\n");
+
+        RosterImporter.Result result = new RosterImporter(mResolver, roster,
+                RosterImporter.FORMAT_CSV).run(null);
+
+        assertResult(3, 1, result);
+        assertEquals(names("Anghel \"Puiu\" Iordănescu", "Laura Georges", "Mircea Lucescu"),
+                queryNames());
+    }
+
+    @Test
+    public void run_jsonRoster_addsValidManagers() throws IOException {
+        Uri roster = write("roster.json", "["
+                + "{\"_id\":1,\"name\":\"Mircea Lucescu\",\"team\":\"Shakhtar Donețk\","
+                + "\"gender\":1,\"trophies\":33},"
+                + "{\"_id\":2,\"name\":\"Laura Georges\",\"team\":null,\"gender\":\"female\","
+                + "\"trophies\":0},"
+                + "{\"_id\":3,\"name\":\"Ștefan Kovács\",\"team\":\"Ajax\",\"gender\":7,"
+                + "\"trophies\":14}"
+                + "]");
+
+        RosterImporter.Result result = new RosterImporter(mResolver, roster,
+                RosterImporter.FORMAT_JSON).run(null);
+
+        assertResult(2, 1, result);
+        assertEquals(names("Laura Georges", "Mircea Lucescu"), queryNames());
+    }
+
+    @Test
+    public void run_jsonRosterOfSeveralChunks_addsEveryManager() throws IOException {
+        // One more than a chunk, so the last chunk holds a single manager
+        int count = RosterImporter.CHUNK_SIZE + 1;
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"Manager ").append(i)
+                    .append("\",\"gender\":0,\"trophies\":").append(i % 10).append('}');
+        }
+        Uri roster = write("roster.json", json.append(']').toString());
+
+        RosterImporter.Result result = new RosterImporter(mResolver, roster,
+                RosterImporter.FORMAT_JSON).run(null);
+
+        assertResult(count, 0, result);
+        assertEquals(count, queryNames().size());
+    }
+
+    @Test
+    public void run_emptyJsonRoster_addsNothing() throws IOException {
+        RosterImporter.Result result = new RosterImporter(mResolver, write("roster.json", "[]"),
+                RosterImporter.FORMAT_JSON).run(null);
+
+        assertResult(0, 0, result);
+    }
+
+    @Test
+    public void run_resolverThrows_throwsAndKeepsEarlierChunks() throws IOException {
+        Robolectric.setupContentProvider(FullManagerProvider.class,
+                ManagerContract.CONTENT_AUTHORITY);
+        int count = 2 * RosterImporter.CHUNK_SIZE;
+        StringBuilder csv = new StringBuilder("name,team,gender,trophies\r\n");
+        for (int i = 0; i < count; i++) {
+            csv.append("Manager ").append(i).append(",,0,").append(i % 10).append("\r\n");
+        }
+        Uri roster = write("roster.csv", csv.toString());
+
+        try {
+            new RosterImporter(mResolver, roster, RosterImporter.FORMAT_CSV).run(null);
+            fail("Import into a full database returned");
+        } catch (SQLiteFullException expected) {
+        }
+        assertEquals(RosterImporter.CHUNK_SIZE, queryNames().size());
+    }
+
+    /** A provider whose database fills up after its first bulk insert */
+    public static class FullManagerProvider extends ManagerProvider {
+
+        private boolean mFull;
+
+        @Override
+        public int bulkInsert(Uri uri, ContentValues[] values) {
+            if (mFull) {
+                throw new SQLiteFullException("database or disk is full");
+            }
+            mFull = true;
+            return super.bulkInsert(uri, values);
+        }
+    }
+
+    /** Returns a URI the resolver reads the given roster text from */
+    private Uri write(String name, String text) throws IOException {
+        Uri uri = Uri.parse("content://rosters/" + name);
+        shadowOf(mResolver).registerInputStream(uri,
+                new ByteArrayInputStream(text.getBytes("UTF-8")));
+        return uri;
+    }
+
+    private static void assertResult(int imported, int rejected, RosterImporter.Result result) {
+        assertEquals("imported", imported, result.imported);
+        assertEquals("rejected", rejected, result.rejected);
+        assertFalse(result.cancelled);
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    /** Returns the names of the managers in the provider, sorted */
+    private List<String> queryNames() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mResolver.query(ManagerEntry.CONTENT_URI,
+                new String[] { ManagerEntry.COLUMN_MANAGER_NAME }, null, null,
+                ManagerEntry.COLUMN_MANAGER_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
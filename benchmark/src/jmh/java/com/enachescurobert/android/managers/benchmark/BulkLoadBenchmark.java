@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of loading a roster of 1k, 100k or 1M managers into an empty database, in bulkInsert()
+ * chunks the way a roster import does. Each score is the time of a whole load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BulkLoadBenchmark {
+
+    /** Number of managers in the roster */
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    /** The roster, generated up front so only the database writes are timed */
+    private List<List<Manager>> mChunks;
+
+    private File mFile;
+    private ManagerStore mStore;
+
+    @Setup(Level.Trial)
+    public void generateRoster() {
+        mChunks = new ArrayList<>();
+        for (int n = 0; n < rows; n += ManagerStore.CHUNK_SIZE) {
+            mChunks.add(Manager.generate(n, Math.min(ManagerStore.CHUNK_SIZE, rows - n)));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createDatabase() throws Exception {
+        mFile = ManagerStore.newDatabaseFile();
+        mStore = ManagerStore.create(mFile);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDatabase() throws Exception {
+        mStore.close();
+        ManagerStore.deleteDatabaseFile(mFile);
+    }
+
+    @Benchmark
+    public int bulkLoad() throws Exception {
+        int count = 0;
+        for (List<Manager> chunk : mChunks) {
+            count += mStore.bulkInsert(chunk);
+        }
+        return count;
+    }
+}
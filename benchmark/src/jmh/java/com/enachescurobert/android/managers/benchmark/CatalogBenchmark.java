@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the provider requests that leave the size of the catalog alone: reading a manager by
+ * _id, paging through the whole catalog and updating a manager, on catalogs of 1k, 100k and 1M
+ * managers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CatalogBenchmark {
+
+    /** Number of managers in the catalog */
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    private File mFile;
+    private ManagerStore mStore;
+
+    /** Picks the managers to read and update, the same ones on every run */
+    private Random mRandom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFile = ManagerStore.newDatabaseFile();
+        mStore = ManagerStore.create(mFile);
+        mStore.load(0, rows);
+        mRandom = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mStore.close();
+        ManagerStore.deleteDatabaseFile(mFile);
+    }
+
+    @Benchmark
+    public int queryById() throws Exception {
+        // The catalog was loaded into an empty table, so the _ids run from 1 to rows
+        return mStore.queryById(1 + mRandom.nextInt(rows));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int scanCatalog() throws Exception {
+        return mStore.scanCatalog();
+    }
+
+    @Benchmark
+    public int update() throws Exception {
+        return mStore.updateTrophies(1 + mRandom.nextInt(rows), mRandom.nextInt(50));
+    }
+}
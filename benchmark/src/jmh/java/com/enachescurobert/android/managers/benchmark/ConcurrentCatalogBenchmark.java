@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Time of loading the first catalog page while the editor keeps saving managers, on a catalog
+ * of 100k managers. One thread reads the page over and over while another updates managers one
+ * at a time, and the times are sampled, so the score of each comes with its percentiles.
+ *
+ * The journal is either the rollback journal ManagerDbHelper had at first or write-ahead
+ * logging with the helper's pragmas. Without write-ahead logging Android keeps a single
+ * connection per database, so the reader and the writer share one here and queue for it in
+ * turn, as they would in the connection pool. With it, the reader gets a connection of its own.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentCatalogBenchmark {
+
+    /** Number of managers in the catalog */
+    static final int ROWS = 100000;
+
+    /** "rollback" for the rollback journal, "wal" for write-ahead logging */
+    @Param({ "rollback", "wal" })
+    public String journal;
+
+    private File mFile;
+    private ManagerStore mWriter;
+    private ManagerStore mReader;
+
+    /** Held while using each connection, the same lock if they share one */
+    private Lock mWriterLock;
+    private Lock mReaderLock;
+
+    /** Picks the managers to update, the same ones on every run. Only used by the writer. */
+    private Random mRandom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        boolean wal = "wal".equals(journal);
+        mFile = ManagerStore.newDatabaseFile();
+        mWriter = ManagerStore.create(mFile, wal);
+        mWriter.load(0, ROWS);
+        mReader = wal ? ManagerStore.openReader(mFile) : mWriter;
+        mWriterLock = new ReentrantLock(true);
+        mReaderLock = wal ? new ReentrantLock(true) : mWriterLock;
+        mRandom = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (mReader != mWriter) {
+            mReader.close();
+        }
+        mWriter.close();
+        ManagerStore.deleteDatabaseFile(mFile);
+    }
+
+    @Benchmark
+    @Group("catalog")
+    @GroupThreads(1)
+    public int readFirstPage() throws Exception {
+        mReaderLock.lock();
+        try {
+            return mReader.queryFirstPage();
+        } finally {
+            mReaderLock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("catalog")
+    @GroupThreads(1)
+    public int write() throws Exception {
+        // The catalog was loaded into an empty table, so the _ids run from 1 to ROWS
+        long id = 1 + mRandom.nextInt(ROWS);
+        int trophies = mRandom.nextInt(50);
+        mWriterLock.lock();
+        try {
+            return mWriter.updateTrophies(id, trophies);
+        } finally {
+            mWriterLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One manager to write into the database, as the editor or a roster import would hand it to the
+ * provider. The benchmark rosters are generated from the row number alone, so every run works on
+ * exactly the same data.
+ */
+final class Manager {
+
+    /** Number of different teams in a generated roster */
+    static final int TEAM_COUNT = 200;
+
+    final String name;
+    final String team;
+    final int gender;
+    final int trophies;
+
+    Manager(String name, String team, int gender, int trophies) {
+        this.name = name;
+        this.team = team;
+        this.gender = gender;
+        this.trophies = trophies;
+    }
+
+    /**
+     * Returns the manager at the given row of the benchmark roster.
+     */
+    static Manager generate(int n) {
+        // Spread the names around the alphabet so they don't arrive in index order
+        int mixed = (int) ((n * 2654435761L) & 0x7FFFFFFF);
+
+        // Every tenth manager has no team, and some team names need their accents folded
+        String team = null;
+        if (n % 10 != 0) {
+            int teamNumber = mixed % TEAM_COUNT;
+            team = (teamNumber % 4 == 0 ? "\u0218tiin\u021ba " : "Team ") + teamNumber;
+        }
+        return new Manager("Manager " + Integer.toString(mixed, 36), team, n % 3, mixed % 50);
+    }
+
+    /**
+     * Returns the managers at the given rows of the benchmark roster.
+     */
+    static List<Manager> generate(int from, int count) {
+        List<Manager> managers = new ArrayList<>(count);
+        for (int n = from; n < from + count; n++) {
+            managers.add(generate(n));
+        }
+        return managers;
+    }
+}
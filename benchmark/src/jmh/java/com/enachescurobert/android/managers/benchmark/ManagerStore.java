@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import com.enachescurobert.android.managers.data.ManagerSql;
+
+import org.sqlite.SQLiteConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The managers database, opened over JDBC the way ManagerDbHelper configures it, with the
+ * statements ManagerProvider runs for each kind of request. ManagerProvider itself needs the
+ * Android runtime, so this is what stands in for it on a plain JVM: every method issues the same
+ * SQL in the same transactions as the provider call it is named after, minus the caches and
+ * change notifications that sit in front of the database.
+ *
+ * The SQL comes from the app's {@link ManagerSql}, which the provider builds its statements
+ * from too, so it can't drift from the provider's. What still has to be kept in step by hand is
+ * the order of the statements in each method.
+ */
+final class ManagerStore {
+
+    /** Connection settings from ManagerDbHelper */
+    private static final int CACHE_SIZE_PAGES = 4000;
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    private static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+
+    /** Number of managers a roster import writes in one bulkInsert() */
+    static final int CHUNK_SIZE = 2000;
+
+    /** Number of managers the catalog asks for at a time */
+    static final int PAGE_SIZE = 50;
+
+    /** Number of managers ManagerProvider deletes per transaction, ManagerPurger.CHUNK_SIZE */
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    /** The catalog list's default order */
+    private static final ManagerSql.PageSort PAGE_SORT = ManagerSql.SORT_BY_NAME;
+
+    /** Columns of the catalog pages, the last one being the page key */
+    private static final String[] PAGE_COLUMNS =
+            ManagerSql.withPageKey(ManagerSql.PAGE_COLUMNS, PAGE_SORT.column);
+
+    /** Selection of a manager URI's update or delete, as the provider narrows it */
+    private static final String LIVE_ID_SELECTION =
+            ManagerSql.and(ManagerSql.ID_SELECTION, ManagerSql.NOT_DELETED);
+
+    /** Selection of one chunk of a delete, given the _id and then the _id range */
+    private static final String DELETE_CHUNK_SELECTION =
+            ManagerSql.and(LIVE_ID_SELECTION, ManagerSql.ID_RANGE_SELECTION);
+
+    private static final String SQL_QUERY_MANAGER = ManagerSql.select(ManagerSql.DETAILS_VIEW,
+            ManagerSql.DETAILS_COLUMNS, ManagerSql.ID_SELECTION, null, null);
+    private static final String SQL_FIRST_PAGE = ManagerSql.select(ManagerSql.DETAILS_VIEW,
+            PAGE_COLUMNS, null, PAGE_SORT.orderBy(), String.valueOf(PAGE_SIZE));
+    private static final String SQL_NEXT_PAGE = ManagerSql.select(ManagerSql.DETAILS_VIEW,
+            PAGE_COLUMNS, PAGE_SORT.after(), PAGE_SORT.orderBy(), String.valueOf(PAGE_SIZE));
+    private static final String SQL_SELECT_IDS = ManagerSql.select(ManagerSql.MANAGERS,
+            new String[] { ManagerSql.ID }, LIVE_ID_SELECTION, ManagerSql.ID, null);
+    private static final String SQL_UPDATE_TROPHIES = ManagerSql.update(ManagerSql.MANAGERS,
+            new String[] { ManagerSql.TROPHIES }, LIVE_ID_SELECTION);
+    private static final String SQL_SELECT_DELETE_CHUNK = ManagerSql.select(ManagerSql.MANAGERS,
+            new String[] { ManagerSql.ID }, DELETE_CHUNK_SELECTION, ManagerSql.ID,
+            String.valueOf(DELETE_CHUNK_SIZE));
+    private static final String SQL_DELETE_CHUNK = ManagerSql.update(ManagerSql.MANAGERS,
+            new String[] { ManagerSql.DELETED }, DELETE_CHUNK_SELECTION);
+
+    private final Connection mConnection;
+
+    private final PreparedStatement mInsertManager;
+    private final PreparedStatement mInsertTeam;
+    private final PreparedStatement mFindTeam;
+    private final PreparedStatement mQueryManager;
+    private final PreparedStatement mFirstPage;
+    private final PreparedStatement mNextPage;
+    private final PreparedStatement mSelectIds;
+    private final PreparedStatement mUpdateTrophies;
+    private final PreparedStatement mMaxId;
+    private final PreparedStatement mSelectDeleteChunk;
+    private final PreparedStatement mDeleteChunk;
+    private final PreparedStatement mRecordDelete;
+
+    /** The last deletion time handed out, as ManagerDbHelper.newDeletionTime() keeps it */
+    private long mLastDeletionTime;
+
+    private ManagerStore(Connection connection) throws SQLException {
+        mConnection = connection;
+        mInsertManager = connection.prepareStatement(ManagerSql.SQL_INSERT_MANAGER);
+        mInsertTeam = connection.prepareStatement(ManagerSql.SQL_INSERT_TEAM);
+        mFindTeam = connection.prepareStatement(ManagerSql.SQL_FIND_TEAM);
+        mQueryManager = connection.prepareStatement(SQL_QUERY_MANAGER);
+        mFirstPage = connection.prepareStatement(SQL_FIRST_PAGE);
+        mNextPage = connection.prepareStatement(SQL_NEXT_PAGE);
+        mSelectIds = connection.prepareStatement(SQL_SELECT_IDS);
+        mUpdateTrophies = connection.prepareStatement(SQL_UPDATE_TROPHIES);
+        mMaxId = connection.prepareStatement(ManagerSql.SQL_MAX_MANAGER_ID);
+        mSelectDeleteChunk = connection.prepareStatement(SQL_SELECT_DELETE_CHUNK);
+        mDeleteChunk = connection.prepareStatement(SQL_DELETE_CHUNK);
+        mRecordDelete = connection.prepareStatement(ManagerSql.SQL_RECORD_DELETE);
+    }
+
+    /**
+     * Create a new, empty managers database in the given file, which must not exist yet.
+     */
+    static ManagerStore create(File file) throws SQLException, IOException {
+        return create(file, true);
+    }
+
+    /**
+     * Create a new, empty managers database in the given file, which must not exist yet, with
+     * write-ahead logging or with the rollback journal ManagerDbHelper used before it.
+     */
+    static ManagerStore create(File file, boolean wal) throws SQLException, IOException {
+        Connection connection = connect(file, wal, true);
+        Statement statement = connection.createStatement();
+        try {
+            for (String sql : readSchema()) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+        connection.setAutoCommit(false);
+        return new ManagerStore(connection);
+    }
+
+    /**
+     * Open a second connection to a database made by {@link #create(File, boolean)} with
+     * write-ahead logging, to read from, the way Android's connection pool gives readers a
+     * connection of their own. Its transactions are deferred, as Android's read-only ones are,
+     * so they never wait for the writer.
+     */
+    static ManagerStore openReader(File file) throws SQLException {
+        Connection connection = connect(file, true, false);
+        connection.setAutoCommit(false);
+        return new ManagerStore(connection);
+    }
+
+    /**
+     * Returns a connection to the given file. The primary connection, which writes, is
+     * configured the way ManagerDbHelper configures it with write-ahead logging on, and its
+     * transactions begin as beginTransactionNonExclusive() begins them. Without write-ahead
+     * logging, it is left the way SQLiteOpenHelper left the helper's before that: Android's
+     * default TRUNCATE journal and FULL syncs, and SQLite's default cache.
+     *
+     * The helper's pragmas only reach Android's primary connection, so a reader connection only
+     * gets the journal mode and sync level the pool sets on every connection, and deferred
+     * transactions.
+     */
+    private static Connection connect(File file, boolean wal, boolean primary)
+            throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        if (wal) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+            config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+            if (primary) {
+                config.setCacheSize(CACHE_SIZE_PAGES);
+            }
+        } else {
+            config.setJournalMode(SQLiteConfig.JournalMode.TRUNCATE);
+            config.setSynchronous(SQLiteConfig.SynchronousMode.FULL);
+        }
+        config.enforceForeignKeys(true);
+        config.setTransactionMode(primary ? SQLiteConfig.TransactionMode.IMMEDIATE
+                : SQLiteConfig.TransactionMode.DEFERRED);
+
+        Connection connection = config.createConnection("jdbc:sqlite:" + file.getPath());
+        if (wal && primary) {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+                statement.execute("PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+            } finally {
+                statement.close();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Add one manager in a transaction of its own, with the statement ManagerRepository.insert()
+     * binds. Returns the _id of the new manager.
+     */
+    long insert(Manager manager) throws SQLException {
+        try {
+            Map<String, Long> teams = new HashMap<>();
+            mInsertManager.setString(1, manager.name);
+            bindTeam(mInsertManager, 2, manager.team, teams);
+            mInsertManager.setInt(3, manager.gender);
+            mInsertManager.setInt(4, manager.trophies);
+            mInsertManager.executeUpdate();
+
+            long id;
+            ResultSet keys = mInsertManager.getGeneratedKeys();
+            try {
+                keys.next();
+                id = keys.getLong(1);
+            } finally {
+                keys.close();
+            }
+            mConnection.commit();
+            return id;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Add the given managers in one transaction, the way ManagerProvider.bulkInsert() does.
+     * Returns the number of managers added.
+     */
+    int bulkInsert(List<Manager> managers) throws SQLException {
+        try {
+            Map<String, Long> teams = new HashMap<>();
+            for (Manager manager : managers) {
+                mInsertManager.setString(1, manager.name);
+                bindTeam(mInsertManager, 2, manager.team, teams);
+                mInsertManager.setInt(3, manager.gender);
+                mInsertManager.setInt(4, manager.trophies);
+                mInsertManager.executeUpdate();
+            }
+            mConnection.commit();
+            return managers.size();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Read every column of the manager with the given _id, the way ManagerProvider.query() does
+     * for a manager URI that isn't cached yet. Returns the trophies of the manager, or -1 if
+     * there is no such manager.
+     */
+    int queryById(long id) throws SQLException {
+        mQueryManager.setLong(1, id);
+        ResultSet row = mQueryManager.executeQuery();
+        try {
+            if (!row.next()) {
+                return -1;
+            }
+            row.getLong(1);
+            row.getString(2);
+            row.getString(3);
+            row.getLong(4);
+            row.getInt(5);
+            return row.getInt(6);
+        } finally {
+            row.close();
+            mConnection.commit();
+        }
+    }
+
+    /**
+     * Read the first page of the catalog in name order, the way the catalog list reloads it
+     * after every change. Returns the number of managers read.
+     */
+    int queryFirstPage() throws SQLException {
+        int rows = 0;
+        ResultSet row = mFirstPage.executeQuery();
+        try {
+            while (row.next()) {
+                row.getLong(1);
+                row.getString(2);
+                row.getString(3);
+                row.getString(4);
+                rows++;
+            }
+        } finally {
+            row.close();
+            mConnection.commit();
+        }
+        return rows;
+    }
+
+    /**
+     * Page through the whole catalog the way the catalog list does as it is scrolled to the
+     * bottom, {@link #PAGE_SIZE} managers at a time in name order, each page carrying on from
+     * the page key and _id of the last manager of the one before. Returns the number of managers
+     * read.
+     */
+    int scanCatalog() throws SQLException {
+        int count = 0;
+        String lastKey = null;
+        long lastId = 0;
+        PreparedStatement page = mFirstPage;
+        while (true) {
+            if (lastKey != null) {
+                page = mNextPage;
+                page.setString(1, lastKey);
+                page.setString(2, lastKey);
+                page.setLong(3, lastId);
+            }
+
+            int rows = 0;
+            ResultSet row = page.executeQuery();
+            try {
+                while (row.next()) {
+                    lastId = row.getLong(1);
+                    row.getString(2);
+                    row.getString(3);
+                    lastKey = row.getString(4);
+                    rows++;
+                }
+            } finally {
+                row.close();
+            }
+            mConnection.commit();
+
+            count += rows;
+            if (rows < PAGE_SIZE) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Change the trophies of the manager with the given _id, the way ManagerProvider.update()
+     * does for a manager URI. Returns the number of managers updated.
+     */
+    int updateTrophies(long id, int trophies) throws SQLException {
+        try {
+            // The provider finds the managers it is about to change first, to invalidate them
+            selectIds(id);
+            mUpdateTrophies.setInt(1, trophies);
+            mUpdateTrophies.setLong(2, id);
+            int rowsUpdated = mUpdateTrophies.executeUpdate();
+            mConnection.commit();
+            return rowsUpdated;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Delete the manager with the given _id, the way ManagerProvider.delete() does for a manager
+     * URI: by setting its tombstone, which ManagerPurger removes later, and recording when the
+     * delete committed. The provider deletes in
+     * chunks of the managers up to the largest _id there was when it started, which for a single
+     * manager is one chunk. Returns the number of managers deleted.
+     */
+    int delete(long id) throws SQLException {
+        try {
+            long maxId;
+            ResultSet max = mMaxId.executeQuery();
+            try {
+                max.next();
+                maxId = max.getLong(1);
+            } finally {
+                max.close();
+            }
+            mConnection.commit();
+
+            mSelectDeleteChunk.setLong(1, id);
+            mSelectDeleteChunk.setLong(2, 0);
+            mSelectDeleteChunk.setLong(3, maxId);
+            long lastId = -1;
+            ResultSet ids = mSelectDeleteChunk.executeQuery();
+            try {
+                while (ids.next()) {
+                    lastId = ids.getLong(1);
+                }
+            } finally {
+                ids.close();
+            }
+
+            int rowsDeleted = 0;
+            if (lastId != -1) {
+                mLastDeletionTime = Math.max(System.currentTimeMillis(), mLastDeletionTime + 1);
+                mDeleteChunk.setLong(1, mLastDeletionTime);
+                mDeleteChunk.setLong(2, id);
+                mDeleteChunk.setLong(3, 0);
+                mDeleteChunk.setLong(4, lastId);
+                rowsDeleted = mDeleteChunk.executeUpdate();
+                mRecordDelete.setLong(1, mLastDeletionTime);
+                mRecordDelete.setLong(2, System.currentTimeMillis());
+                mRecordDelete.executeUpdate();
+            }
+            mConnection.commit();
+            return rowsDeleted;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Delete every manager with an _id above the given one, to put the database back the way it
+     * was after a benchmark added managers to it.
+     */
+    void deleteAfter(long id) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(
+                "DELETE FROM managers WHERE _id > ?");
+        try {
+            statement.setLong(1, id);
+            statement.executeUpdate();
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Add the managers at the given rows of the benchmark roster, in chunks of
+     * {@link #CHUNK_SIZE} the way RosterImporter writes them.
+     */
+    void load(int from, int count) throws SQLException {
+        for (int n = from; n < from + count; n += CHUNK_SIZE) {
+            bulkInsert(Manager.generate(n, Math.min(CHUNK_SIZE, from + count - n)));
+        }
+    }
+
+    void close() throws SQLException {
+        mConnection.close();
+    }
+
+    /**
+     * Returns a database file in the temporary directory that doesn't exist yet.
+     */
+    static File newDatabaseFile() throws IOException {
+        File file = File.createTempFile("managers", ".db");
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Delete a database file along with its write-ahead log or rollback journal.
+     */
+    static void deleteDatabaseFile(File file) {
+        file.delete();
+        new File(file.getPath() + "-journal").delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+    }
+
+    private void selectIds(long id) throws SQLException {
+        mSelectIds.setLong(1, id);
+        ResultSet ids = mSelectIds.executeQuery();
+        try {
+            while (ids.next()) {
+                ids.getLong(1);
+            }
+        } finally {
+            ids.close();
+        }
+    }
+
+    /**
+     * Bind the _id of the named team, adding the team if it's new, the way TeamResolver does.
+     * The _ids already looked up are kept in the given map for the rest of the transaction.
+     */
+    private void bindTeam(PreparedStatement statement, int index, String team,
+                          Map<String, Long> teams) throws SQLException {
+        String name = team == null ? "" : team.trim();
+        if (name.isEmpty()) {
+            statement.setNull(index, Types.INTEGER);
+            return;
+        }
+
+        Long id = teams.get(name);
+        if (id == null) {
+            mInsertTeam.setString(1, name);
+            if (mInsertTeam.executeUpdate() > 0) {
+                ResultSet keys = mInsertTeam.getGeneratedKeys();
+                try {
+                    keys.next();
+                    id = keys.getLong(1);
+                } finally {
+                    keys.close();
+                }
+            } else {
+                mFindTeam.setString(1, name);
+                ResultSet row = mFindTeam.executeQuery();
+                try {
+                    row.next();
+                    id = row.getLong(1);
+                } finally {
+                    row.close();
+                }
+            }
+            teams.put(name, id);
+        }
+        statement.setLong(index, id);
+    }
+
+    /**
+     * Returns the statements of schema.sql, which are separated by blank lines.
+     */
+    private static String[] readSchema() throws IOException {
+        InputStream in = ManagerStore.class.getResourceAsStream("/schema.sql");
+        if (in == null) {
+            throw new IOException("Missing schema.sql");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder schema = new StringBuilder();
+        for (String line : bytes.toString("UTF-8").split("\n")) {
+            if (!line.startsWith("--")) {
+                schema.append(line).append('\n');
+            }
+        }
+        return schema.toString().trim().split("\n\\s*\n");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enachescurobert.android.managers.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of inserting and deleting single managers on catalogs of 1k, 100k and 1M managers.
+ *
+ * Deletes need a manager to delete every time, so both benchmarks run in batches of
+ * {@link #BATCH_SIZE} calls: the managers a batch deletes are added before it starts, and
+ * whatever a batch added is deleted after it ends, so the catalog stays the same size. Each
+ * score is the time of a whole batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = ManagerWriteBenchmark.BATCH_SIZE)
+@Measurement(iterations = 10, batchSize = ManagerWriteBenchmark.BATCH_SIZE)
+@Fork(1)
+public class ManagerWriteBenchmark {
+
+    /** Number of inserts or deletes timed together */
+    static final int BATCH_SIZE = 1000;
+
+    /** Number of managers in the catalog */
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    private File mFile;
+    private ManagerStore mStore;
+
+    /** Row of the benchmark roster the next insert adds */
+    private int mNextRow;
+
+    /** _id of the manager the next delete removes */
+    private long mNextDeleteId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFile = ManagerStore.newDatabaseFile();
+        mStore = ManagerStore.create(mFile);
+        mStore.load(0, rows);
+        mNextRow = rows;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mStore.close();
+        ManagerStore.deleteDatabaseFile(mFile);
+    }
+
+    @Setup(Level.Iteration)
+    public void addManagersToDelete() throws Exception {
+        // They get the next _ids, as the table is AUTOINCREMENT and nothing else is adding
+        mNextDeleteId = mStore.insert(Manager.generate(mNextRow++));
+        mStore.load(mNextRow, BATCH_SIZE - 1);
+        mNextRow += BATCH_SIZE - 1;
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeAddedManagers() throws Exception {
+        mStore.deleteAfter(rows);
+    }
+
+    @Benchmark
+    public long insert() throws Exception {
+        return mStore.insert(Manager.generate(mNextRow++));
+    }
+
+    @Benchmark
+    public int delete() throws Exception {
+        return mStore.delete(mNextDeleteId++);
+    }
+}
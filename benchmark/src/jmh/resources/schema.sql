@@ -0,0 +1,60 @@
+-- Schema of the managers database at ManagerDbHelper's DATABASE_VERSION 10, as left behind by
+-- onCreate(). The benchmarks open the database through JDBC instead of the app's helper, so
+-- regenerate this file (SELECT sql FROM sqlite_master) whenever a migration is added.
+-- ManagerSqlTest in the app checks it against a database the helper has just created.
+
+CREATE VIRTUAL TABLE manager_search USING fts4(name, team, prefix="2,3");
+
+CREATE TABLE teams (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL UNIQUE COLLATE NOCASE);
+
+CREATE TABLE managers (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, team_id INTEGER REFERENCES teams (_id) ON DELETE SET NULL, gender INTEGER NOT NULL, trophies INTEGER NOT NULL DEFAULT 0, deleted INTEGER);
+
+CREATE TRIGGER manager_search_insert AFTER INSERT ON managers BEGIN INSERT INTO manager_search (docid, name, team) VALUES (new._id, lower(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(new.name, 'ă', 'a'), 'Ă', 'a'), 'â', 'a'), 'Â', 'a'), 'î', 'i'), 'Î', 'i'), 'ș', 's'), 'Ș', 's'), 'ş', 's'), 'Ş', 's'), 'ț', 't'), 'Ț', 't'), 'ţ', 't'), 'Ţ', 't')), lower(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace((SELECT name FROM teams WHERE _id = new.team_id), 'ă', 'a'), 'Ă', 'a'), 'â', 'a'), 'Â', 'a'), 'î', 'i'), 'Î', 'i'), 'ș', 's'), 'Ș', 's'), 'ş', 's'), 'Ş', 's'), 'ț', 't'), 'Ț', 't'), 'ţ', 't'), 'Ţ', 't'))); END;
+
+CREATE TRIGGER manager_search_update AFTER UPDATE OF name, team_id ON managers BEGIN UPDATE manager_search SET name = lower(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(new.name, 'ă', 'a'), 'Ă', 'a'), 'â', 'a'), 'Â', 'a'), 'î', 'i'), 'Î', 'i'), 'ș', 's'), 'Ș', 's'), 'ş', 's'), 'Ş', 's'), 'ț', 't'), 'Ț', 't'), 'ţ', 't'), 'Ţ', 't')), team = lower(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace((SELECT name FROM teams WHERE _id = new.team_id), 'ă', 'a'), 'Ă', 'a'), 'â', 'a'), 'Â', 'a'), 'î', 'i'), 'Î', 'i'), 'ș', 's'), 'Ș', 's'), 'ş', 's'), 'Ş', 's'), 'ț', 't'), 'Ț', 't'), 'ţ', 't'), 'Ţ', 't')) WHERE docid = old._id; END;
+
+CREATE TRIGGER manager_search_delete AFTER DELETE ON managers BEGIN DELETE FROM manager_search WHERE docid = old._id; END;
+
+CREATE TRIGGER manager_search_team_update AFTER UPDATE OF name ON teams BEGIN UPDATE manager_search SET team = lower(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(replace(new.name, 'ă', 'a'), 'Ă', 'a'), 'â', 'a'), 'Â', 'a'), 'î', 'i'), 'Î', 'i'), 'ș', 's'), 'Ș', 's'), 'ş', 's'), 'Ş', 's'), 'ț', 't'), 'Ț', 't'), 'ţ', 't'), 'Ţ', 't')) WHERE docid IN (SELECT _id FROM managers WHERE team_id = new._id); END;
+
+CREATE TABLE team_stats (team_id INTEGER PRIMARY KEY REFERENCES teams (_id) ON DELETE CASCADE, manager_count INTEGER NOT NULL DEFAULT 0, trophy_total INTEGER NOT NULL DEFAULT 0, max_trophies INTEGER NOT NULL DEFAULT 0);
+
+CREATE TABLE gender_stats (gender INTEGER PRIMARY KEY, manager_count INTEGER NOT NULL DEFAULT 0, trophy_total INTEGER NOT NULL DEFAULT 0, max_trophies INTEGER NOT NULL DEFAULT 0);
+
+CREATE VIEW team_stats_details AS SELECT s.team_id AS team_id, t.name AS team, s.manager_count AS manager_count, s.trophy_total AS trophy_total, s.max_trophies AS max_trophies FROM team_stats s JOIN teams t ON t._id = s.team_id;
+
+CREATE TABLE manager_changes (sequence INTEGER PRIMARY KEY AUTOINCREMENT, manager_id INTEGER NOT NULL UNIQUE, kind INTEGER NOT NULL);
+
+CREATE INDEX managers_name ON managers (name COLLATE NOCASE, _id, team_id, deleted) WHERE deleted IS NULL;
+
+CREATE INDEX managers_trophies ON managers (trophies DESC, _id, name, team_id, deleted) WHERE deleted IS NULL;
+
+CREATE INDEX managers_team_id ON managers (team_id, _id, name, deleted) WHERE deleted IS NULL;
+
+CREATE INDEX managers_team_trophies ON managers (team_id, trophies, deleted) WHERE deleted IS NULL;
+
+CREATE INDEX managers_gender_trophies ON managers (gender, trophies, deleted) WHERE deleted IS NULL;
+
+CREATE INDEX managers_deleted ON managers (deleted) WHERE deleted IS NOT NULL;
+
+CREATE VIEW manager_details AS SELECT m._id AS _id, m.name AS name, t.name AS team, m.team_id AS team_id, m.gender AS gender, m.trophies AS trophies FROM managers m LEFT JOIN teams t ON t._id = m.team_id WHERE m.deleted IS NULL;
+
+CREATE VIEW manager_change_details AS SELECT c.sequence AS sequence, c.manager_id AS manager_id, c.kind AS kind, m.name AS name, t.name AS team, m.team_id AS team_id, m.gender AS gender, m.trophies AS trophies FROM manager_changes c LEFT JOIN managers m ON m._id = c.manager_id AND m.deleted IS NULL LEFT JOIN teams t ON t._id = m.team_id;
+
+CREATE TRIGGER managers_stats_insert AFTER INSERT ON managers BEGIN INSERT INTO team_stats (team_id) SELECT new.team_id WHERE new.team_id IS NOT NULL AND new.deleted IS NULL AND NOT EXISTS (SELECT 1 FROM team_stats WHERE team_id = new.team_id); UPDATE team_stats SET manager_count = manager_count + 1, trophy_total = trophy_total + new.trophies, max_trophies = max(max_trophies, new.trophies) WHERE team_id = new.team_id AND new.deleted IS NULL; INSERT INTO gender_stats (gender) SELECT new.gender WHERE new.gender IS NOT NULL AND new.deleted IS NULL AND NOT EXISTS (SELECT 1 FROM gender_stats WHERE gender = new.gender); UPDATE gender_stats SET manager_count = manager_count + 1, trophy_total = trophy_total + new.trophies, max_trophies = max(max_trophies, new.trophies) WHERE gender = new.gender AND new.deleted IS NULL; END;
+
+CREATE TRIGGER managers_stats_update AFTER UPDATE OF team_id, gender, trophies, deleted ON managers WHEN old.team_id IS NOT new.team_id OR old.gender != new.gender OR old.trophies != new.trophies OR old.deleted IS NOT new.deleted BEGIN UPDATE team_stats SET manager_count = manager_count - 1, trophy_total = trophy_total - old.trophies, max_trophies = ifnull((SELECT max(trophies) FROM managers WHERE team_id = old.team_id AND deleted IS NULL), 0) WHERE team_id = old.team_id AND old.deleted IS NULL; DELETE FROM team_stats WHERE team_id = old.team_id AND manager_count <= 0; UPDATE gender_stats SET manager_count = manager_count - 1, trophy_total = trophy_total - old.trophies, max_trophies = ifnull((SELECT max(trophies) FROM managers WHERE gender = old.gender AND deleted IS NULL), 0) WHERE gender = old.gender AND old.deleted IS NULL; DELETE FROM gender_stats WHERE gender = old.gender AND manager_count <= 0; INSERT INTO team_stats (team_id) SELECT new.team_id WHERE new.team_id IS NOT NULL AND new.deleted IS NULL AND NOT EXISTS (SELECT 1 FROM team_stats WHERE team_id = new.team_id); UPDATE team_stats SET manager_count = manager_count + 1, trophy_total = trophy_total + new.trophies, max_trophies = max(max_trophies, new.trophies) WHERE team_id = new.team_id AND new.deleted IS NULL; INSERT INTO gender_stats (gender) SELECT new.gender WHERE new.gender IS NOT NULL AND new.deleted IS NULL AND NOT EXISTS (SELECT 1 FROM gender_stats WHERE gender = new.gender); UPDATE gender_stats SET manager_count = manager_count + 1, trophy_total = trophy_total + new.trophies, max_trophies = max(max_trophies, new.trophies) WHERE gender = new.gender AND new.deleted IS NULL; END;
+
+CREATE TRIGGER managers_stats_delete AFTER DELETE ON managers BEGIN UPDATE team_stats SET manager_count = manager_count - 1, trophy_total = trophy_total - old.trophies, max_trophies = ifnull((SELECT max(trophies) FROM managers WHERE team_id = old.team_id AND deleted IS NULL), 0) WHERE team_id = old.team_id AND old.deleted IS NULL; DELETE FROM team_stats WHERE team_id = old.team_id AND manager_count <= 0; UPDATE gender_stats SET manager_count = manager_count - 1, trophy_total = trophy_total - old.trophies, max_trophies = ifnull((SELECT max(trophies) FROM managers WHERE gender = old.gender AND deleted IS NULL), 0) WHERE gender = old.gender AND old.deleted IS NULL; DELETE FROM gender_stats WHERE gender = old.gender AND manager_count <= 0; END;
+
+CREATE TRIGGER manager_changes_insert AFTER INSERT ON managers BEGIN DELETE FROM manager_changes WHERE manager_id IN (SELECT new._id); INSERT INTO manager_changes (manager_id, kind) SELECT new._id, 0; END;
+
+CREATE TRIGGER manager_changes_update AFTER UPDATE ON managers WHEN old.deleted IS NULL OR new.deleted IS NULL BEGIN DELETE FROM manager_changes WHERE manager_id IN (SELECT new._id); INSERT INTO manager_changes (manager_id, kind) SELECT new._id, CASE WHEN new.deleted IS NOT NULL THEN 2 WHEN old.deleted IS NOT NULL THEN 0 ELSE 1 END; END;
+
+CREATE TRIGGER manager_changes_delete AFTER DELETE ON managers WHEN old.deleted IS NULL BEGIN DELETE FROM manager_changes WHERE manager_id IN (SELECT old._id); INSERT INTO manager_changes (manager_id, kind) SELECT old._id, 2; END;
+
+CREATE TRIGGER manager_changes_team_update AFTER UPDATE OF name ON teams WHEN old.name IS NOT new.name BEGIN DELETE FROM manager_changes WHERE manager_id IN (SELECT _id FROM managers WHERE team_id = new._id AND deleted IS NULL); INSERT INTO manager_changes (manager_id, kind) SELECT _id, 1 FROM managers WHERE team_id = new._id AND deleted IS NULL; END;
+
+CREATE TABLE manager_changes_floor (sequence INTEGER NOT NULL);
+
+CREATE TABLE manager_deletes (deleted INTEGER PRIMARY KEY, committed INTEGER NOT NULL);